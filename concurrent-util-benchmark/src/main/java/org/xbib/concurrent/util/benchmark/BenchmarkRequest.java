@@ -0,0 +1,21 @@
+package org.xbib.concurrent.util.benchmark;
+
+import org.xbib.concurrent.util.Request;
+
+/**
+ * A request carrying a payload of a given size.
+ */
+public class BenchmarkRequest implements Request {
+
+    static final BenchmarkRequest POISON = new BenchmarkRequest(new byte[0]);
+
+    private final byte[] payload;
+
+    public BenchmarkRequest(byte[] payload) {
+        this.payload = payload;
+    }
+
+    public byte[] getPayload() {
+        return payload;
+    }
+}
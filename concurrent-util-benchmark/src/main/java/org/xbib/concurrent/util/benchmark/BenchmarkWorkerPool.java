@@ -0,0 +1,71 @@
+package org.xbib.concurrent.util.benchmark;
+
+import org.xbib.concurrent.util.AbstractWorkerPool;
+import org.xbib.concurrent.util.Worker;
+import org.xbib.concurrent.util.WorkerPoolListener;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.SynchronousQueue;
+import java.util.zip.CRC32;
+
+/**
+ * A worker pool whose workers compute a checksum over the request payload.
+ */
+public class BenchmarkWorkerPool extends AbstractWorkerPool<BenchmarkRequest, Worker<BenchmarkRequest>> {
+
+    public BenchmarkWorkerPool(int workerCount,
+                               WorkerPoolListener<BenchmarkRequest, Worker<BenchmarkRequest>> listener,
+                               BlockingQueue<BenchmarkRequest> queue) {
+        super("benchmark", workerCount, listener, 30, queue);
+    }
+
+    @Override
+    public Worker<BenchmarkRequest> newWorker(String name) {
+        return new ChecksumWorker();
+    }
+
+    @Override
+    public BenchmarkRequest getPoison() {
+        return BenchmarkRequest.POISON;
+    }
+
+    /**
+     * Create the hand-off queue by type name.
+     *
+     * @param type one of synchronous, linked, or array
+     * @param capacity the capacity of bounded queues
+     * @return the queue
+     */
+    public static BlockingQueue<BenchmarkRequest> newQueue(String type, int capacity) {
+        switch (type) {
+            case "synchronous":
+                return new SynchronousQueue<>(true);
+            case "linked":
+                return new LinkedBlockingQueue<>(capacity);
+            case "array":
+                return new ArrayBlockingQueue<>(capacity);
+            default:
+                throw new IllegalArgumentException("unknown queue type: " + type);
+        }
+    }
+
+    static class ChecksumWorker implements Worker<BenchmarkRequest> {
+
+        private final CRC32 crc32 = new CRC32();
+
+        private long checksum;
+
+        @Override
+        public void execute(BenchmarkRequest request) {
+            crc32.reset();
+            crc32.update(request.getPayload());
+            // keep the result reachable so the computation is not eliminated
+            checksum += crc32.getValue();
+        }
+
+        long getChecksum() {
+            return checksum;
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package org.xbib.concurrent.util.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.xbib.concurrent.util.LRUCache;
+import org.xbib.concurrent.util.SampledLRUCache;
+import org.xbib.concurrent.util.ShardedCache;
+import org.xbib.concurrent.util.TinyLFUCache;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of a cache under a mix of 90% reads and 10% writes of keys with a skewed
+ * distribution, for the cache variants. Run with {@code -Pjmh.args="-tg 18,2"} to scale the
+ * reader and writer threads of the group with the cores.
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CacheBenchmark {
+
+    private static final int KEYS = 1 << 16;
+
+    @Param({"lru", "tinylfu", "sampled", "sharded"})
+    public String cache;
+
+    @Param({"8192"})
+    public int maxSize;
+
+    private Map<Integer, Integer> map;
+
+    private Integer[] keys;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        switch (cache) {
+            case "lru":
+                map = new LRUCache<>(maxSize);
+                break;
+            case "tinylfu":
+                map = new TinyLFUCache<>(maxSize);
+                break;
+            case "sampled":
+                map = new SampledLRUCache<>(maxSize);
+                break;
+            case "sharded":
+                map = new ShardedCache<>(maxSize);
+                break;
+            default:
+                throw new IllegalArgumentException("unknown cache " + cache);
+        }
+        // a Zipf-like distribution, small keys are drawn far more often
+        keys = new Integer[KEYS];
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int i = 0; i < KEYS; i++) {
+            keys[i] = (int) Math.pow(KEYS, random.nextDouble());
+        }
+        for (int i = 0; i < KEYS; i++) {
+            map.put(keys[i], i);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Index {
+
+        private int index = ThreadLocalRandom.current().nextInt(KEYS);
+
+        int next() {
+            index = (index + 1) & (KEYS - 1);
+            return index;
+        }
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(9)
+    public Integer read(Index index) {
+        return map.get(keys[index.next()]);
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(1)
+    public Integer write(Index index) {
+        int i = index.next();
+        return map.put(keys[i], i);
+    }
+}
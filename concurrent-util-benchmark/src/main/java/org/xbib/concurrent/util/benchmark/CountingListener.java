@@ -0,0 +1,66 @@
+package org.xbib.concurrent.util.benchmark;
+
+import org.xbib.concurrent.util.Worker;
+import org.xbib.concurrent.util.WorkerPoolListener;
+import java.util.Collection;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A listener that only counts events, for measuring the listener call overhead.
+ */
+public class CountingListener implements WorkerPoolListener<BenchmarkRequest, Worker<BenchmarkRequest>> {
+
+    private final LongAdder successes = new LongAdder();
+
+    private final LongAdder failures = new LongAdder();
+
+    @Override
+    public void success() {
+    }
+
+    @Override
+    public void success(BenchmarkRequest request, Worker<BenchmarkRequest> worker) {
+        successes.increment();
+    }
+
+    @Override
+    public void reject(BenchmarkRequest request, Throwable reason) {
+        failures.increment();
+    }
+
+    @Override
+    public void failure() {
+    }
+
+    @Override
+    public void failure(Throwable throwable) {
+        failures.increment();
+    }
+
+    @Override
+    public void failure(BenchmarkRequest request, Worker<BenchmarkRequest> worker, Throwable throwable) {
+        failures.increment();
+    }
+
+    @Override
+    public void afterfailure(Collection<BenchmarkRequest> requests) {
+    }
+
+    @Override
+    public void timeout(Throwable throwable) {
+        failures.increment();
+    }
+
+    @Override
+    public void timeout(Worker<BenchmarkRequest> worker, Throwable throwable) {
+        failures.increment();
+    }
+
+    public long getSuccesses() {
+        return successes.sum();
+    }
+
+    public long getFailures() {
+        return failures.sum();
+    }
+}
@@ -0,0 +1,80 @@
+package org.xbib.concurrent.util.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.xbib.concurrent.util.DefaultRunnable;
+import org.xbib.concurrent.util.Worker;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of the {@link DefaultRunnable} worker loop per request, measured by draining
+ * a prefilled queue on a single thread, without any hand-off between threads.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WorkerLoopBenchmark {
+
+    private static final int BATCH = 10000;
+
+    @Param({"linked", "array"})
+    public String queue;
+
+    @Param({"0", "1024"})
+    public int requestSize;
+
+    @Param({"false", "true"})
+    public boolean listener;
+
+    private BenchmarkWorkerPool pool;
+
+    private BlockingQueue<BenchmarkRequest> requests;
+
+    private BenchmarkWorkerPool.ChecksumWorker worker;
+
+    private CountingListener countingListener;
+
+    private BenchmarkRequest request;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        countingListener = listener ? new CountingListener() : null;
+        // the pool is never opened, it is only notified when the loop ends
+        pool = new BenchmarkWorkerPool(1, countingListener, BenchmarkWorkerPool.newQueue(queue, BATCH + 1));
+        requests = BenchmarkWorkerPool.newQueue(queue, BATCH + 1);
+        worker = new BenchmarkWorkerPool.ChecksumWorker();
+        request = new BenchmarkRequest(new byte[requestSize]);
+    }
+
+    @Setup(Level.Invocation)
+    public void fill() {
+        for (int i = 0; i < BATCH; i++) {
+            requests.add(request);
+        }
+        requests.add(BenchmarkRequest.POISON);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void drain(Blackhole blackhole) {
+        new DefaultRunnable<BenchmarkRequest, Worker<BenchmarkRequest>>(pool, requests,
+                BenchmarkRequest.POISON, countingListener, worker).run();
+        blackhole.consume(worker.getChecksum());
+    }
+}
@@ -0,0 +1,76 @@
+package org.xbib.concurrent.util.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput and latency of handing off requests to a worker pool by
+ * {@link org.xbib.concurrent.util.AbstractWorkerPool#execute}, for one and many producers.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WorkerPoolBenchmark {
+
+    @Param({"1", "4"})
+    public int workers;
+
+    @Param({"synchronous", "linked", "array"})
+    public String queue;
+
+    @Param({"0", "1024"})
+    public int requestSize;
+
+    @Param({"false", "true"})
+    public boolean listener;
+
+    private BenchmarkWorkerPool pool;
+
+    private BenchmarkRequest request;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        pool = new BenchmarkWorkerPool(workers,
+                listener ? new CountingListener() : null,
+                BenchmarkWorkerPool.newQueue(queue, 1024));
+        pool.open();
+        request = new BenchmarkRequest(new byte[requestSize]);
+    }
+
+    @TearDown(Level.Trial)
+    public void teardown() throws IOException {
+        pool.close();
+        if (pool.isFailed()) {
+            throw new IllegalStateException("pool failed");
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void singleProducer() {
+        pool.execute(request);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void fourProducers() {
+        pool.execute(request);
+    }
+}
@@ -1,3 +1,5 @@
 module org.xbib.concurrent.util {
     exports org.xbib.concurrent.util;
+    requires java.management;
+    requires jdk.jfr;
 }
\ No newline at end of file
@@ -1,20 +1,26 @@
 package org.xbib.concurrent.util;
 
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.ArrayDeque;
+import java.util.Objects;
 import java.util.concurrent.CancellationException;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
-import java.util.concurrent.locks.AbstractQueuedSynchronizer;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * <p>
  * An abstract implementation of the {@link Future} interface.  This class
  * is an abstraction of {@link java.util.concurrent.FutureTask} to support use
- * for tasks other than {@link Runnable}s.  It uses an
- * {@link AbstractQueuedSynchronizer} to deal with concurrency issues and
- * guarantee thread safety.  It could be used as a base class to
- * {@code FutureTask}, or any other implementor of the {@code Future} interface.
+ * for tasks other than {@link Runnable}s.  It is lock-free: the state and the
+ * result of the future are one field, which changes once by a CAS from null to
+ * the result, and blocked getters wait in a stack of waiters that the completing
+ * thread unparks.  It could be used as a base class to {@code FutureTask}, or any
+ * other implementor of the {@code Future} interface.
  * </p>
  *
  * <p>
@@ -34,16 +40,112 @@ import java.util.concurrent.locks.AbstractQueuedSynchronizer;
  * and running tasks.
  * </p>
  *
- * <p>This class is taken from the Google Guava project.</p>
+ * <p>
+ * Listeners added by {@link #addListener(Runnable, Executor)} run once when the
+ * future completes, in the order they were added, or at once if it is already
+ * complete, so that a completion can be handled without a thread blocked in get.
+ * </p>
+ *
+ * <p>This class is derived from the Google Guava project.</p>
  *
  * @param <V> the future value parameter type
  */
 public abstract class AbstractFuture<V> implements Future<V> {
 
+    private static final VarHandle RESULT;
+
+    private static final VarHandle WAITERS;
+
+    private static final VarHandle LISTENERS;
+
+    /**
+     * The result of a future that completed with null.
+     */
+    private static final Object NULL = new Object();
+
+    /**
+     * The result of a cancelled future.
+     */
+    private static final Object CANCELLED = new Object();
+
     /**
-     * Synchronization control.
+     * The waiters after completion, no more waiters are pushed.
      */
-    private final Sync<V> sync = new Sync<>();
+    private static final Waiter TOMBSTONE = new Waiter(null);
+
+    /**
+     * The listeners after completion, no more listeners are pushed.
+     */
+    private static final Listener LISTENERS_TOMBSTONE = new Listener(null, null);
+
+    /**
+     * The listeners that are queued by direct execution on the current thread, while an
+     * outer direct execution runs.
+     */
+    private static final ThreadLocal<ArrayDeque<Runnable>> DIRECT_QUEUE = new ThreadLocal<>();
+
+    static {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            RESULT = lookup.findVarHandle(AbstractFuture.class, "result", Object.class);
+            WAITERS = lookup.findVarHandle(AbstractFuture.class, "waiters", Waiter.class);
+            LISTENERS = lookup.findVarHandle(AbstractFuture.class, "listeners", Listener.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    /**
+     * Null while running, then the value, {@link #NULL}, a {@link Failure}, or
+     * {@link #CANCELLED}.
+     */
+    private volatile Object result;
+
+    /**
+     * A Treiber stack of the threads that wait in get.
+     */
+    private volatile Waiter waiters;
+
+    /**
+     * A Treiber stack of the listeners, the most recently added first.
+     */
+    private volatile Listener listeners;
+
+    /**
+     * Return an executor that runs listeners on the thread that completes the future,
+     * or that adds them to a complete future. Listeners that complete other futures
+     * with listeners of their own are run one after the other by a loop, instead of
+     * recursively, so long chains do not overflow the stack.
+     *
+     * @return the direct executor
+     */
+    public static Executor directExecutor() {
+        return DirectExecutor.INSTANCE;
+    }
+
+    /**
+     * Add a listener that is run once when the future completes, on an executor. The
+     * listeners run in the order they were added. If the future is complete, the
+     * listener is run at once. An exception of the listener, or a rejection by the
+     * executor, is passed to the uncaught exception handler of the thread. An error of a
+     * listener on the direct executor is rethrown after the other direct listeners ran.
+     *
+     * @param listener the listener
+     * @param executor the executor of the listener, for example {@link #directExecutor()}
+     */
+    public void addListener(Runnable listener, Executor executor) {
+        Objects.requireNonNull(listener);
+        Objects.requireNonNull(executor);
+        Listener node = new Listener(listener, executor);
+        Listener head;
+        while ((head = listeners) != LISTENERS_TOMBSTONE) {
+            node.next = head;
+            if (LISTENERS.compareAndSet(this, head, node)) {
+                return;
+            }
+        }
+        execute(listener, executor);
+    }
 
     /**
      * The default {@link AbstractFuture} implementation throws {@code
@@ -58,7 +160,17 @@ public abstract class AbstractFuture<V> implements Future<V> {
     @Override
     public V get(long timeout, TimeUnit unit) throws InterruptedException,
             TimeoutException, ExecutionException {
-        return sync.get(unit.toNanos(timeout));
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+        Object r = result;
+        if (r == null) {
+            r = await(true, unit.toNanos(timeout));
+            if (r == null) {
+                throw new TimeoutException("Timeout waiting for task.");
+            }
+        }
+        return getValue(r);
     }
 
     /**
@@ -72,31 +184,49 @@ public abstract class AbstractFuture<V> implements Future<V> {
      */
     @Override
     public V get() throws InterruptedException, ExecutionException {
-        return sync.get();
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+        Object r = result;
+        if (r == null) {
+            r = await(false, 0L);
+        }
+        return getValue(r);
     }
 
     /**
-     * Checks if the sync is not in the running state.
+     * Checks if the future is not running anymore.
      */
     @Override
     public boolean isDone() {
-        return sync.isDone();
+        return result != null;
     }
 
     /**
-     * Checks if the sync is in the cancelled state.
+     * Checks if the future was cancelled.
      */
     @Override
     public boolean isCancelled() {
-        return sync.isCancelled();
+        return result == CANCELLED;
     }
 
+    /**
+     * Checks if the future completed with a value, which may be null.
+     *
+     * @return true if the future completed with a value
+     */
     public boolean isSucceeded() {
-        return sync.isSuccess();
+        Object r = result;
+        return r != null && r != CANCELLED && !(r instanceof Failure);
     }
 
+    /**
+     * Checks if the future completed with an exception.
+     *
+     * @return true if the future completed with an exception
+     */
     public boolean isFailed() {
-        return sync.isFailed();
+        return result instanceof Failure;
     }
 
     /**
@@ -104,10 +234,9 @@ public abstract class AbstractFuture<V> implements Future<V> {
      */
     @Override
     public boolean cancel(boolean mayInterruptIfRunning) {
-        if (!sync.cancel()) {
+        if (!complete(CANCELLED)) {
             return false;
         }
-        done();
         if (mayInterruptIfRunning) {
             interruptTask();
         }
@@ -116,52 +245,37 @@ public abstract class AbstractFuture<V> implements Future<V> {
 
     /**
      * Subclasses should invoke this method to set the result of the computation
-     * to {@code value}.  This will set the state of the future to
-     * {@link AbstractFuture.Sync#COMPLETED} and call {@link #done()} if the
-     * state was successfully changed.
+     * to {@code value}.  This will complete the future and call {@link #done()}
+     * if the state was successfully changed.
      *
      * @param value the value that was the result of the task.
      * @return true if the state was successfully changed.
      */
     protected boolean set(V value) {
-        boolean result = sync.set(value);
-        if (result) {
-            done();
-        }
-        return result;
+        return complete(value != null ? value : NULL);
     }
 
     /**
      * Subclasses should invoke this method to set the result of the computation
-     * to an error, {@code throwable}.  This will set the state of the future to
-     * {@link AbstractFuture.Sync#COMPLETED} and call {@link #done()} if the
-     * state was successfully changed.
+     * to an error, {@code throwable}.  This will complete the future and call
+     * {@link #done()} if the state was successfully changed.
      *
      * @param exception the exception that the task failed with.
      * @return true if the state was successfully changed.
      */
     protected boolean setException(Exception exception) {
-        boolean result = sync.setException(exception);
-        if (result) {
-            done();
-        }
-        return result;
+        return complete(new Failure(exception));
     }
 
     /**
      * Subclasses should invoke this method to mark the future as cancelled.
-     * This will set the state of the future to {@link
-     * AbstractFuture.Sync#CANCELLED} and call {@link #done()} if the state was
-     * successfully changed.
+     * This will complete the future as cancelled and call {@link #done()} if
+     * the state was successfully changed.
      *
      * @return true if the state was successfully changed.
      */
     protected final boolean cancel() {
-        boolean result = sync.cancel();
-        if (result) {
-            done();
-        }
-        return result;
+        return complete(CANCELLED);
     }
 
     /**
@@ -183,171 +297,234 @@ public abstract class AbstractFuture<V> implements Future<V> {
     }
 
     /**
-     * <p>
-     * Following the contract of {@link AbstractQueuedSynchronizer} we create a
-     * private subclass to hold the synchronizer.  This synchronizer is used to
-     * implement the blocking and waiting calls as well as to handle state changes
-     * in a thread-safe manner.  The current state of the future is held in the
-     * Sync state, and the lock is released whenever the state changes to either
-     * {@link #COMPLETED} or {@link #CANCELLED}.
-     * </p>
-     * <p>
-     * To avoid races between threads doing release and acquire, we transition
-     * to the final state in two steps.  One thread will successfully CAS from
-     * RUNNING to COMPLETING, that thread will then set the result of the
-     * computation, and only then transition to COMPLETED or CANCELLED.
-     * </p>
-     * <p>
-     * We don't use the integer argument passed between acquire methods so we
-     * pass around a -1 everywhere.
-     * </p>
+     * Complete the future with a result, if it is still running, and release the
+     * waiters. The result is visible as soon as the CAS succeeded, so a concurrent
+     * completion that fails never has to wait. The listeners are taken before
+     * {@link #done()} and run even if it throws.
      */
-    static final class Sync<V> extends AbstractQueuedSynchronizer {
-
-        private static final long serialVersionUID = -796072460488712821L;
-
-        static final int RUNNING = 0;
-        static final int COMPLETING = 1;
-        static final int COMPLETED = 2;
-        static final int CANCELLED = 4;
-
-        private V value;
-        private Exception exception;
-
-        /*
-        * Acquisition succeeds if the future is done, otherwise it fails.
-        */
-        @Override
-        protected int tryAcquireShared(int ignored) {
-            return isDone() ? 1 : -1;
+    private boolean complete(Object r) {
+        if (!RESULT.compareAndSet(this, null, r)) {
+            return false;
         }
-
-        /*
-        * We always allow a release to go through, this means the state has been
-        * successfully changed and the result is available.
-        */
-        @Override
-        protected boolean tryReleaseShared(int finalState) {
-            setState(finalState);
-            return true;
+        Waiter w = (Waiter) WAITERS.getAndSet(this, TOMBSTONE);
+        while (w != null) {
+            Thread thread = w.thread;
+            if (thread != null) {
+                w.thread = null;
+                LockSupport.unpark(thread);
+            }
+            w = w.next;
         }
-
-        /**
-         * Blocks until the task is complete or the timeout expires.  Throws a
-         * {@link TimeoutException} if the timer expires, otherwise behaves like
-         * {@link #get()}.
-         */
-        V get(long nanos) throws TimeoutException, CancellationException,
-                ExecutionException, InterruptedException {
-            // Attempt to acquire the shared lock with a timeout.
-            if (!tryAcquireSharedNanos(-1, nanos)) {
-                throw new TimeoutException("Timeout waiting for task.");
+        Listener head = (Listener) LISTENERS.getAndSet(this, LISTENERS_TOMBSTONE);
+        // reverse the stack to run the listeners in the order they were added
+        Listener reversed = null;
+        while (head != null) {
+            Listener next = head.next;
+            head.next = reversed;
+            reversed = head;
+            head = next;
+        }
+        try {
+            done();
+        } finally {
+            for (Listener l = reversed; l != null; l = l.next) {
+                execute(l.task, l.executor);
             }
-            return getValue();
         }
+        return true;
+    }
 
-        /**
-         * Blocks until {@link #complete(Object, Exception, int)} has been
-         * successfully called.  Throws a {@link CancellationException} if the task
-         * was cancelled, or a {@link ExecutionException} if the task completed with
-         * an error.
-         */
-        V get() throws CancellationException, ExecutionException,
-                InterruptedException {
-            // Acquire the shared lock allowing interruption.
-            acquireSharedInterruptibly(-1);
-            return getValue();
+    private static void execute(Runnable task, Executor executor) {
+        if (executor == DirectExecutor.INSTANCE) {
+            runDirect(task);
+            return;
+        }
+        try {
+            executor.execute(task);
+        } catch (RuntimeException e) {
+            report(e);
         }
+    }
 
-        /**
-         * Implementation of the actual value retrieval.  Will return the value
-         * on success, an exception on failure, a cancellation on cancellation, or
-         * an illegal state if the synchronizer is in an invalid state.
-         */
-        private V getValue() throws CancellationException, ExecutionException {
-            int state = getState();
-            switch (state) {
-                case COMPLETED:
-                    if (exception != null) {
-                        throw new ExecutionException(exception);
+    /**
+     * Run a task on the current thread, or queue it if the thread already runs direct
+     * tasks further up the stack, which then runs it after the current task. The queued
+     * tasks belong to other futures, so an error of a task is rethrown only after the
+     * queue is drained.
+     */
+    private static void runDirect(Runnable task) {
+        ArrayDeque<Runnable> queue = DIRECT_QUEUE.get();
+        if (queue != null) {
+            queue.add(task);
+            return;
+        }
+        queue = new ArrayDeque<>();
+        DIRECT_QUEUE.set(queue);
+        Error error = null;
+        try {
+            Runnable r = task;
+            do {
+                try {
+                    r.run();
+                } catch (RuntimeException e) {
+                    report(e);
+                } catch (Error e) {
+                    if (error == null) {
+                        error = e;
                     } else {
-                        return value;
+                        error.addSuppressed(e);
                     }
-                case CANCELLED:
-                    throw new CancellationException("task was cancelled");
-                default:
-                    throw new IllegalStateException("error, synchronizer in invalid state: " + state);
-            }
+                }
+            } while ((r = queue.poll()) != null);
+        } finally {
+            DIRECT_QUEUE.remove();
         }
-
-        /**
-         * Checks if the state is {@link #COMPLETED} or {@link #CANCELLED}.
-         */
-        boolean isDone() {
-            return (getState() & (COMPLETED | CANCELLED)) != 0;
+        if (error != null) {
+            throw error;
         }
+    }
+
+    private static void report(RuntimeException e) {
+        Thread thread = Thread.currentThread();
+        thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+    }
 
-        /**
-         * Checks if the state is {@link #CANCELLED}.
-         */
-        boolean isCancelled() {
-            return getState() == CANCELLED;
+    /**
+     * Wait for the result.
+     *
+     * @return the result, or null if timed out
+     */
+    private Object await(boolean timed, long nanos) throws InterruptedException {
+        long deadline = timed ? System.nanoTime() + nanos : 0L;
+        Waiter node = null;
+        while (true) {
+            Object r = result;
+            if (r != null) {
+                return r;
+            }
+            if (node == null) {
+                node = new Waiter(Thread.currentThread());
+            }
+            Waiter head = waiters;
+            if (head == TOMBSTONE) {
+                // completed, the result is visible now
+                continue;
+            }
+            node.next = head;
+            if (WAITERS.compareAndSet(this, head, node)) {
+                break;
+            }
         }
+        while (true) {
+            if (timed) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0L) {
+                    removeWaiter(node);
+                    return result;
+                }
+                LockSupport.parkNanos(this, remaining);
+            } else {
+                LockSupport.park(this);
+            }
+            Object r = result;
+            if (r != null) {
+                return r;
+            }
+            if (Thread.interrupted()) {
+                removeWaiter(node);
+                throw new InterruptedException();
+            }
+        }
+    }
 
-        boolean isSuccess() {
-            return value != null && getState() == COMPLETED;
+    /**
+     * Unlink a waiter that gave up, and any other waiters that gave up, like
+     * {@link java.util.concurrent.FutureTask} does.
+     */
+    private void removeWaiter(Waiter node) {
+        node.thread = null;
+        retry:
+        while (true) {
+            Waiter pred = null;
+            Waiter q = waiters;
+            if (q == TOMBSTONE) {
+                return;
+            }
+            while (q != null) {
+                Waiter next = q.next;
+                if (q.thread != null) {
+                    pred = q;
+                } else if (pred != null) {
+                    pred.next = next;
+                    if (pred.thread == null) {
+                        // the predecessor gave up too, start again
+                        continue retry;
+                    }
+                } else if (!WAITERS.compareAndSet(this, q, next)) {
+                    continue retry;
+                }
+                q = next;
+            }
+            return;
         }
+    }
 
-        boolean isFailed() {
-            return exception != null && getState() == COMPLETED;
+    /**
+     * Implementation of the actual value retrieval.  Will return the value
+     * on success, an exception on failure, or a cancellation on cancellation.
+     */
+    @SuppressWarnings("unchecked")
+    private static <V> V getValue(Object r) throws CancellationException, ExecutionException {
+        if (r == CANCELLED) {
+            throw new CancellationException("task was cancelled");
         }
+        if (r instanceof Failure) {
+            throw new ExecutionException(((Failure) r).exception);
+        }
+        return r == NULL ? null : (V) r;
+    }
+
+    private static final class Failure {
 
-        /**
-         * Transition to the COMPLETED state and set the value.
-         */
-        boolean set(V v) {
-            return complete(v, null, COMPLETED);
+        final Exception exception;
+
+        Failure(Exception exception) {
+            this.exception = exception;
         }
+    }
+
+    private static final class Listener {
+
+        final Runnable task;
 
-        /**
-         * Transition to the COMPLETED state and set the exception.
-         */
-        boolean setException(Exception exception) {
-            return complete(null, exception, COMPLETED);
+        final Executor executor;
+
+        Listener next;
+
+        Listener(Runnable task, Executor executor) {
+            this.task = task;
+            this.executor = executor;
         }
+    }
+
+    private enum DirectExecutor implements Executor {
 
-        /**
-         * Transition to the CANCELLED state.
-         */
-        boolean cancel() {
-            return complete(null, null, CANCELLED);
+        INSTANCE;
+
+        @Override
+        public void execute(Runnable command) {
+            command.run();
         }
+    }
 
-        /**
-         * Implementation of completing a task.  Either {@code v} or {@code t} will
-         * be set but not both.  The {@code finalState} is the state to change to
-         * from {@link #RUNNING}.  If the state is not in the RUNNING state we
-         * return {@code false} after waiting for the state to be set to a valid
-         * final state ({@link #COMPLETED} or {@link #CANCELLED}).
-         *
-         * @param v the value to set as the result of the computation.
-         * @param exception the exception to set as the result of the computation.
-         * @param finalState the state to transition to.
-         */
-        private boolean complete(V v, Exception exception, int finalState) {
-            boolean doCompletion = compareAndSetState(RUNNING, COMPLETING);
-            if (doCompletion) {
-                // If this thread successfully transitioned to COMPLETING, set the value
-                // and exception and then release to the final state.
-                this.value = v;
-                this.exception = exception;
-                releaseShared(finalState);
-            } else if (getState() == COMPLETING) {
-                // If some other thread is currently completing the future, block until
-                // they are done so we can guarantee completion.
-                acquireShared(-1);
-            }
-            return doCompletion;
+    private static final class Waiter {
+
+        volatile Thread thread;
+
+        volatile Waiter next;
+
+        Waiter(Thread thread) {
+            this.thread = thread;
         }
     }
 }
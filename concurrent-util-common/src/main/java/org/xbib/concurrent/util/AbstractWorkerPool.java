@@ -16,13 +16,17 @@ import java.util.concurrent.atomic.AtomicBoolean;
  * If worker threads exit early, they are removed and finished, not reused.
  * If no worker is left, the pool closes.
  *
+ * The life cycle of requests and workers is reported as flight recorder events
+ * in the category "Worker Pool". If the events are not enabled in a recording,
+ * they are not committed and cost nothing.
+ *
  * @param <R> the request type
  * @param <W> the worker type
  */
 public abstract class AbstractWorkerPool<R extends Request, W extends Worker<R>>
         implements WorkerPool<R, W>, AutoCloseable {
 
-    private static final int DEFAULT_TIMEOUT_IN_SECONDS = 30;
+    protected static final int DEFAULT_TIMEOUT_IN_SECONDS = 30;
 
     private final String name;
 
@@ -75,16 +79,46 @@ public abstract class AbstractWorkerPool<R extends Request, W extends Worker<R>>
                 new WorkerThreadFactory(name + "-worker")));
     }
 
+    public AbstractWorkerPool(String name,
+                              int workerCount,
+                              WorkerPoolListener<R, W> listener,
+                              int timeoutInSeconds,
+                              BlockingQueue<R> queue) {
+        this(name, workerCount, listener, timeoutInSeconds,
+                new ThreadPoolWorkerExecutor<>(listener, workerCount,
+                new LinkedBlockingQueue<>(),
+                new WorkerThreadFactory(name + "-worker")), queue);
+    }
+
     public AbstractWorkerPool(String name,
                               int workerCount,
                               WorkerPoolListener<R, W> listener,
                               int timeoutInSeconds,
                               ThreadPoolWorkerExecutor<R, W> executor) {
+        this(name, workerCount, listener, timeoutInSeconds, executor, new SynchronousQueue<>(true));
+    }
+
+    /**
+     * Create a worker pool.
+     *
+     * @param name the name of the pool
+     * @param workerCount the number of workers
+     * @param listener the listener or null
+     * @param timeoutInSeconds the timeout for handing off a request to the queue
+     * @param executor the executor for the workers
+     * @param queue the queue for handing off requests to the workers, by default a fair synchronous queue
+     */
+    public AbstractWorkerPool(String name,
+                              int workerCount,
+                              WorkerPoolListener<R, W> listener,
+                              int timeoutInSeconds,
+                              ThreadPoolWorkerExecutor<R, W> executor,
+                              BlockingQueue<R> queue) {
         this.name = name;
         this.workerCount = workerCount;
         this.timeoutInSeconds = timeoutInSeconds;
         this.listener = listener;
-        this.queue = new SynchronousQueue<>(true);
+        this.queue = queue;
         this.closed = new AtomicBoolean(true);
         this.hasFailure = new AtomicBoolean(false);
         this.latch = new CountDownLatch(workerCount);
@@ -100,6 +134,21 @@ public abstract class AbstractWorkerPool<R extends Request, W extends Worker<R>>
         }
     }
 
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Return the timeout for handing off a request, also used by subclasses that wait
+     * in {@link #beforeExecute(Request)}.
+     *
+     * @return the timeout in seconds
+     */
+    protected int getTimeoutInSeconds() {
+        return timeoutInSeconds;
+    }
+
     @Override
     public String newWorkerName(WorkerPool<R, W> workerPool, int i, int workerCount) {
         return name + "-worker-" + i + "-" + workerCount;
@@ -119,27 +168,59 @@ public abstract class AbstractWorkerPool<R extends Request, W extends Worker<R>>
         if (closed.get()) {
             IOException e = new IOException("pool is closed");
             hasFailure.set(true);
-            if (listener != null) {
-                listener.reject(request, e);
-            }
+            reject(request, e);
             return;
         }
         if (latch.getCount() == 0) {
             IOException e = new IOException("pool has no more workers available");
-            if (listener != null) {
-                listener.reject(request, e);
-            }
+            reject(request, e);
             return;
         }
+        RequestEnqueuedEvent event = new RequestEnqueuedEvent();
+        event.begin();
+        boolean accepted = false;
         try {
-            queue.offer(request, timeoutInSeconds, TimeUnit.SECONDS);
+            beforeExecute(request);
+            accepted = true;
+            if (!queue.offer(request, timeoutInSeconds, TimeUnit.SECONDS)) {
+                IOException e = new IOException("timeout while handing off request");
+                afterExecute(request, null, e);
+                reject(request, e);
+                return;
+            }
+        } catch (IOException e) {
+            reject(request, e);
+            return;
         } catch (InterruptedException e) {
             Thread.currentThread().interrupt();
+            if (accepted) {
+                afterExecute(request, null, e);
+            }
             if (listener != null) {
                 listener.timeout(e);
             }
             throw new UncheckedIOException(new IOException(e));
         }
+        if (event.shouldCommit()) {
+            event.pool = name;
+            event.requestClass = request.getClass();
+            event.commit();
+        }
+    }
+
+    /**
+     * Called before a request is handed off to the workers. Subclasses may block here
+     * or refuse the request by throwing an exception.
+     *
+     * @param request the request
+     * @throws IOException if the request is refused, it is rejected
+     * @throws InterruptedException if interrupted while waiting
+     */
+    protected void beforeExecute(R request) throws IOException, InterruptedException {
+    }
+
+    @Override
+    public void afterExecute(R request, W worker, Throwable throwable) {
     }
 
     @Override
@@ -157,6 +238,19 @@ public abstract class AbstractWorkerPool<R extends Request, W extends Worker<R>>
         }
     }
 
+    private void reject(R request, Throwable reason) {
+        RequestRejectedEvent event = new RequestRejectedEvent();
+        if (event.isEnabled()) {
+            event.pool = name;
+            event.requestClass = request.getClass();
+            event.reason = reason.getMessage();
+            event.commit();
+        }
+        if (listener != null) {
+            listener.reject(request, reason);
+        }
+    }
+
     @Override
     public boolean isClosed() {
         return closed.get();
@@ -0,0 +1,96 @@
+package org.xbib.concurrent.util;
+
+import java.util.List;
+
+/**
+ * An intrusive doubly-linked list of cache nodes in access order, with the least
+ * recently used node at the head. The list keeps the total weight of its nodes by
+ * {@link LRUCache.Node#policyWeight}. All operations are O(1). Not thread-safe, it is
+ * guarded by the maintenance lock of the cache.
+ *
+ * @param <K> the key type
+ * @param <V> the value type
+ */
+final class AccessOrderDeque<K, V> {
+
+    private LRUCache.Node<K, V> head;
+
+    private LRUCache.Node<K, V> tail;
+
+    private int size;
+
+    private long weight;
+
+    LRUCache.Node<K, V> peekFirst() {
+        return head;
+    }
+
+    LRUCache.Node<K, V> peekLast() {
+        return tail;
+    }
+
+    /**
+     * Add nodes from the most recently used to the least recently used to a list, until
+     * it has the given size.
+     *
+     * @param list the list
+     * @param limit the maximum size of the list
+     */
+    void addDescending(List<LRUCache.Node<K, V>> list, int limit) {
+        for (LRUCache.Node<K, V> node = tail; node != null && list.size() < limit; node = node.prev) {
+            list.add(node);
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    long weight() {
+        return weight;
+    }
+
+    void addLast(LRUCache.Node<K, V> node) {
+        node.prev = tail;
+        node.next = null;
+        if (tail == null) {
+            head = node;
+        } else {
+            tail.next = node;
+        }
+        tail = node;
+        size++;
+        weight += node.policyWeight;
+    }
+
+    void moveToBack(LRUCache.Node<K, V> node) {
+        if (node != tail) {
+            unlink(node);
+            addLast(node);
+        }
+    }
+
+    void unlink(LRUCache.Node<K, V> node) {
+        LRUCache.Node<K, V> prev = node.prev;
+        LRUCache.Node<K, V> next = node.next;
+        if (prev == null) {
+            head = next;
+        } else {
+            prev.next = next;
+        }
+        if (next == null) {
+            tail = prev;
+        } else {
+            next.prev = prev;
+        }
+        node.prev = null;
+        node.next = null;
+        size--;
+        weight -= node.policyWeight;
+    }
+
+    void updateWeight(LRUCache.Node<K, V> node, int weight) {
+        this.weight += weight - node.policyWeight;
+        node.policyWeight = weight;
+    }
+}
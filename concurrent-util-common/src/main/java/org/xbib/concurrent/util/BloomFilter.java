@@ -0,0 +1,109 @@
+package org.xbib.concurrent.util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A Bloom filter, a compact set that may return false positives but no false negatives.
+ *
+ * An element sets a few bits of a bit array, selected by double hashing of its hash code,
+ * and is possibly contained if all of its bits are set. The number of bits and hashes is
+ * chosen for the expected number of elements and the false positive probability, for
+ * example about 1.2 bytes per element at one percent. Bits are set by CAS, so the filter
+ * is thread-safe without locks, and elements can not be removed.
+ *
+ * @param <T> the element type
+ */
+public class BloomFilter<T> {
+
+    private static final long GOLDEN_RATIO = 0x9e3779b97f4a7c15L;
+
+    private static final long MAX_BITS = (long) Integer.MAX_VALUE * Long.SIZE;
+
+    private final AtomicLongArray bits;
+
+    private final long bitSize;
+
+    private final int hashCount;
+
+    /**
+     * Create a Bloom filter.
+     *
+     * @param expectedInsertions the expected number of elements
+     * @param falsePositiveProbability the false positive probability at the expected
+     *                                 number of elements, between 0 and 1
+     */
+    public BloomFilter(long expectedInsertions, double falsePositiveProbability) {
+        if (expectedInsertions < 1L) {
+            throw new IllegalArgumentException("expectedInsertions must be >= 1");
+        }
+        if (!(falsePositiveProbability > 0.0d && falsePositiveProbability < 1.0d)) {
+            throw new IllegalArgumentException("falsePositiveProbability must be between 0 and 1");
+        }
+        double ln2 = Math.log(2);
+        long m = (long) Math.ceil(-expectedInsertions * Math.log(falsePositiveProbability) / (ln2 * ln2));
+        m = Math.min(MAX_BITS, Math.max(Long.SIZE, m));
+        int words = (int) ((m + Long.SIZE - 1) / Long.SIZE);
+        this.bits = new AtomicLongArray(words);
+        this.bitSize = (long) words * Long.SIZE;
+        this.hashCount = Math.max(1, (int) Math.round((double) bitSize / expectedInsertions * ln2));
+    }
+
+    /**
+     * Add an element.
+     *
+     * @param element the element
+     * @return true if the filter changed, false if the element was possibly contained
+     */
+    public boolean put(T element) {
+        long hash1 = mix(element.hashCode() + GOLDEN_RATIO);
+        long hash2 = mix(hash1) | 1L;
+        boolean changed = false;
+        for (int i = 0; i < hashCount; i++) {
+            long index = ((hash1 + i * hash2) & Long.MAX_VALUE) % bitSize;
+            int word = (int) (index >>> 6);
+            long mask = 1L << index;
+            if ((bits.get(word) & mask) == 0L) {
+                bits.accumulateAndGet(word, mask, (a, b) -> a | b);
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Return if an element is possibly contained. An element that was added is always
+     * contained, an element that was not added is contained with about the false
+     * positive probability.
+     *
+     * @param element the element
+     * @return false if the element is certainly not contained
+     */
+    public boolean mightContain(Object element) {
+        long hash1 = mix(element.hashCode() + GOLDEN_RATIO);
+        long hash2 = mix(hash1) | 1L;
+        for (int i = 0; i < hashCount; i++) {
+            long index = ((hash1 + i * hash2) & Long.MAX_VALUE) % bitSize;
+            if ((bits.get((int) (index >>> 6)) & (1L << index)) == 0L) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public long bitSize() {
+        return bitSize;
+    }
+
+    public int hashCount() {
+        return hashCount;
+    }
+
+    /**
+     * The finalizer of SplitMix64, which spreads a hash code over all bits.
+     */
+    private static long mix(long x) {
+        x = (x ^ (x >>> 30)) * 0xbf58476d1ce4e5b9L;
+        x = (x ^ (x >>> 27)) * 0x94d049bb133111ebL;
+        return x ^ (x >>> 31);
+    }
+}
@@ -0,0 +1,183 @@
+package org.xbib.concurrent.util;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+/**
+ * The file format of cache snapshots.
+ *
+ * A snapshot is a header of a magic number and a version, followed by records of a length
+ * prefixed key and a length prefixed value, and a length of -1 as end marker. The file is
+ * written and read through a direct buffer of 64 KB. It is written to a unique temporary
+ * file in the same directory first, which replaces the snapshot when it is complete, so a
+ * crash never leaves a truncated snapshot behind. The temporary file is deleted if the
+ * write fails.
+ */
+final class CacheSnapshot {
+
+    private static final int MAGIC = 0x78626353;
+
+    private static final int VERSION = 1;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final int END = -1;
+
+    private CacheSnapshot() {
+    }
+
+    static <K, V> int write(Path path, Iterable<? extends Map.Entry<K, V>> entries,
+                            Serializer<? super K> keySerializer,
+                            Serializer<? super V> valueSerializer) throws IOException {
+        // a unique temporary file, so that concurrent writers of a snapshot do not mix
+        Path tmp = Files.createTempFile(path.toAbsolutePath().getParent(),
+                path.getFileName().toString(), ".tmp");
+        int count = 0;
+        try {
+            try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.TRUNCATE_EXISTING,
+                    StandardOpenOption.WRITE)) {
+                ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+                buffer.putInt(MAGIC).putInt(VERSION);
+                for (Map.Entry<K, V> entry : entries) {
+                    put(channel, buffer, keySerializer.serialize(entry.getKey()));
+                    put(channel, buffer, valueSerializer.serialize(entry.getValue()));
+                    count++;
+                }
+                ensureRemaining(channel, buffer, Integer.BYTES);
+                buffer.putInt(END);
+                flush(channel, buffer);
+                channel.force(false);
+            }
+            Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | RuntimeException | Error e) {
+            try {
+                Files.deleteIfExists(tmp);
+            } catch (IOException suppressed) {
+                e.addSuppressed(suppressed);
+            }
+            throw e;
+        }
+        return count;
+    }
+
+    static <K, V> int read(Path path, Serializer<? extends K> keySerializer,
+                           Serializer<? extends V> valueSerializer,
+                           BiConsumer<K, V> consumer) throws IOException {
+        int count = 0;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+            buffer.flip();
+            fill(channel, buffer, 2 * Integer.BYTES);
+            if (buffer.getInt() != MAGIC) {
+                throw new IOException("not a cache snapshot: " + path);
+            }
+            int version = buffer.getInt();
+            if (version != VERSION) {
+                throw new IOException("unsupported snapshot version " + version + ": " + path);
+            }
+            while (true) {
+                ByteBuffer key = get(channel, buffer);
+                if (key == null) {
+                    return count;
+                }
+                K k = keySerializer.deserialize(key);
+                ByteBuffer value = get(channel, buffer);
+                if (value == null) {
+                    throw new IOException("snapshot ends within a record: " + path);
+                }
+                consumer.accept(k, valueSerializer.deserialize(value));
+                count++;
+            }
+        }
+    }
+
+    private static void put(FileChannel channel, ByteBuffer buffer, ByteBuffer bytes) throws IOException {
+        ensureRemaining(channel, buffer, Integer.BYTES);
+        buffer.putInt(bytes.remaining());
+        while (bytes.hasRemaining()) {
+            if (!buffer.hasRemaining()) {
+                flush(channel, buffer);
+            }
+            int n = Math.min(buffer.remaining(), bytes.remaining());
+            ByteBuffer slice = bytes.duplicate();
+            slice.limit(slice.position() + n);
+            buffer.put(slice);
+            bytes.position(bytes.position() + n);
+        }
+    }
+
+    /**
+     * Read a length prefixed record, or return null at the end marker. The returned buffer
+     * is only valid until the next read.
+     */
+    private static ByteBuffer get(FileChannel channel, ByteBuffer buffer) throws IOException {
+        fill(channel, buffer, Integer.BYTES);
+        int length = buffer.getInt();
+        if (length == END) {
+            return null;
+        }
+        if (length < 0) {
+            throw new IOException("invalid record length " + length);
+        }
+        if (length > buffer.capacity()) {
+            // a large record is read into a buffer of its own
+            ByteBuffer large = ByteBuffer.allocate(length);
+            int n = Math.min(buffer.remaining(), length);
+            ByteBuffer slice = buffer.duplicate();
+            slice.limit(slice.position() + n);
+            large.put(slice);
+            buffer.position(buffer.position() + n);
+            while (large.hasRemaining()) {
+                if (channel.read(large) < 0) {
+                    throw new EOFException();
+                }
+            }
+            large.flip();
+            return large;
+        }
+        fill(channel, buffer, length);
+        ByteBuffer record = buffer.duplicate();
+        record.limit(record.position() + length);
+        buffer.position(buffer.position() + length);
+        return record;
+    }
+
+    /**
+     * Read from the channel until the buffer, in read mode, has at least the given number
+     * of bytes remaining.
+     */
+    private static void fill(FileChannel channel, ByteBuffer buffer, int length) throws IOException {
+        if (buffer.remaining() >= length) {
+            return;
+        }
+        buffer.compact();
+        while (buffer.position() < length) {
+            if (channel.read(buffer) < 0) {
+                throw new EOFException();
+            }
+        }
+        buffer.flip();
+    }
+
+    private static void ensureRemaining(FileChannel channel, ByteBuffer buffer, int length) throws IOException {
+        if (buffer.remaining() < length) {
+            flush(channel, buffer);
+        }
+    }
+
+    private static void flush(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+}
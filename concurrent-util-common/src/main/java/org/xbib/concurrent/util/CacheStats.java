@@ -0,0 +1,166 @@
+package org.xbib.concurrent.util;
+
+/**
+ * An immutable snapshot of the statistics of a cache.
+ *
+ * A lookup is a hit if the cache has a value for the key, otherwise a miss. A load is
+ * counted once per call of a loader, and it fails if the loader throws or returns no value.
+ * Evictions count the entries that were removed for the size bound or for expiration.
+ */
+public final class CacheStats {
+
+    private static final CacheStats EMPTY = new CacheStats(0L, 0L, 0L, 0L, 0L, 0L);
+
+    private final long hitCount;
+
+    private final long missCount;
+
+    private final long loadSuccessCount;
+
+    private final long loadFailureCount;
+
+    private final long totalLoadTime;
+
+    private final long evictionCount;
+
+    public CacheStats(long hitCount, long missCount, long loadSuccessCount, long loadFailureCount,
+                      long totalLoadTime, long evictionCount) {
+        if (hitCount < 0L || missCount < 0L || loadSuccessCount < 0L || loadFailureCount < 0L ||
+                totalLoadTime < 0L || evictionCount < 0L) {
+            throw new IllegalArgumentException("counts must be >= 0");
+        }
+        this.hitCount = hitCount;
+        this.missCount = missCount;
+        this.loadSuccessCount = loadSuccessCount;
+        this.loadFailureCount = loadFailureCount;
+        this.totalLoadTime = totalLoadTime;
+        this.evictionCount = evictionCount;
+    }
+
+    public static CacheStats empty() {
+        return EMPTY;
+    }
+
+    public long getHitCount() {
+        return hitCount;
+    }
+
+    public long getMissCount() {
+        return missCount;
+    }
+
+    public long getRequestCount() {
+        return hitCount + missCount;
+    }
+
+    /**
+     * Return the ratio of hits to requests, or 1 if there were no requests.
+     *
+     * @return the hit rate
+     */
+    public double getHitRate() {
+        long requestCount = getRequestCount();
+        return requestCount == 0L ? 1.0d : (double) hitCount / requestCount;
+    }
+
+    /**
+     * Return the ratio of misses to requests, or 0 if there were no requests.
+     *
+     * @return the miss rate
+     */
+    public double getMissRate() {
+        long requestCount = getRequestCount();
+        return requestCount == 0L ? 0.0d : (double) missCount / requestCount;
+    }
+
+    public long getLoadSuccessCount() {
+        return loadSuccessCount;
+    }
+
+    public long getLoadFailureCount() {
+        return loadFailureCount;
+    }
+
+    public long getLoadCount() {
+        return loadSuccessCount + loadFailureCount;
+    }
+
+    /**
+     * Return the time spent in loaders.
+     *
+     * @return the total load time in nanoseconds
+     */
+    public long getTotalLoadTime() {
+        return totalLoadTime;
+    }
+
+    /**
+     * Return the average time of a load, or 0 if there were no loads.
+     *
+     * @return the average load time in nanoseconds
+     */
+    public double getAverageLoadPenalty() {
+        long loadCount = getLoadCount();
+        return loadCount == 0L ? 0.0d : (double) totalLoadTime / loadCount;
+    }
+
+    public long getEvictionCount() {
+        return evictionCount;
+    }
+
+    /**
+     * Return the difference to an earlier snapshot, for the statistics of an interval.
+     *
+     * @param other the earlier snapshot
+     * @return the difference, where negative values are cut to 0
+     */
+    public CacheStats minus(CacheStats other) {
+        return new CacheStats(Math.max(0L, hitCount - other.hitCount),
+                Math.max(0L, missCount - other.missCount),
+                Math.max(0L, loadSuccessCount - other.loadSuccessCount),
+                Math.max(0L, loadFailureCount - other.loadFailureCount),
+                Math.max(0L, totalLoadTime - other.totalLoadTime),
+                Math.max(0L, evictionCount - other.evictionCount));
+    }
+
+    /**
+     * Return the sum with another snapshot, for the statistics of several caches.
+     *
+     * @param other the other snapshot
+     * @return the sum
+     */
+    public CacheStats plus(CacheStats other) {
+        return new CacheStats(hitCount + other.hitCount,
+                missCount + other.missCount,
+                loadSuccessCount + other.loadSuccessCount,
+                loadFailureCount + other.loadFailureCount,
+                totalLoadTime + other.totalLoadTime,
+                evictionCount + other.evictionCount);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof CacheStats)) {
+            return false;
+        }
+        CacheStats other = (CacheStats) o;
+        return hitCount == other.hitCount && missCount == other.missCount &&
+                loadSuccessCount == other.loadSuccessCount && loadFailureCount == other.loadFailureCount &&
+                totalLoadTime == other.totalLoadTime && evictionCount == other.evictionCount;
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(hitCount) * 31 + Long.hashCode(missCount) * 17 + Long.hashCode(evictionCount);
+    }
+
+    @Override
+    public String toString() {
+        return "CacheStats[hitCount=" + hitCount + ",missCount=" + missCount +
+                ",loadSuccessCount=" + loadSuccessCount + ",loadFailureCount=" + loadFailureCount +
+                ",totalLoadTime=" + totalLoadTime + ",evictionCount=" + evictionCount + "]";
+    }
+}
@@ -0,0 +1,20 @@
+package org.xbib.concurrent.util;
+
+/**
+ * Receives completed requests strictly in the order of their sequence numbers.
+ *
+ * @param <R> the request type
+ */
+@FunctionalInterface
+public interface CommitListener<R> {
+
+    /**
+     * Commit a completed request. All requests with a lower sequence number have been
+     * committed before.
+     *
+     * @param request the request
+     * @param sequence the sequence number of the request
+     * @param throwable the exception if the request failed, or null
+     */
+    void commit(R request, long sequence, Throwable throwable);
+}
@@ -0,0 +1,142 @@
+package org.xbib.concurrent.util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.LongConsumer;
+
+/**
+ * A lock-free tracker for the low watermark of contiguous completions.
+ *
+ * Sequence numbers are handed out by {@link #acquire(long, TimeUnit)} and may be completed
+ * in any order. The watermark is the lowest sequence number that is not yet completed, so
+ * every sequence number below the watermark is completed. It is safe to checkpoint at the
+ * watermark at any time without pausing producers.
+ *
+ * Completions are recorded in a window of slots, where each slot holds the last sequence
+ * number completed in it. The window is a power of two. A producer waits in
+ * {@link #acquire(long, TimeUnit)} only if its sequence number would be a full window ahead of
+ * the watermark.
+ *
+ * The watermark listener is called by the thread that advanced the watermark, with the new
+ * value. Listener calls of different threads may interleave, so a listener must not
+ * assume that the values arrive in ascending order.
+ */
+public class CompletionWatermark {
+
+    private static final long PARK_NANOS = 100_000L;
+
+    private final AtomicLongArray slots;
+
+    private final int mask;
+
+    private final AtomicLong next;
+
+    private final AtomicLong watermark;
+
+    private final LongConsumer watermarkListener;
+
+    public CompletionWatermark(int windowSize) {
+        this(windowSize, null);
+    }
+
+    /**
+     * Create a completion watermark.
+     *
+     * @param windowSize the maximum distance between the watermark and the next sequence
+     *                   number, rounded up to a power of two
+     * @param watermarkListener the listener for watermark advances, or null
+     */
+    public CompletionWatermark(int windowSize, LongConsumer watermarkListener) {
+        if (windowSize < 1 || windowSize > 1 << 30) {
+            throw new IllegalArgumentException("window size must be between 1 and 2^30");
+        }
+        int size = windowSize == 1 ? 1 : Integer.highestOneBit(windowSize - 1) << 1;
+        this.slots = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            slots.set(i, -1L);
+        }
+        this.mask = size - 1;
+        this.next = new AtomicLong();
+        this.watermark = new AtomicLong();
+        this.watermarkListener = watermarkListener;
+    }
+
+    /**
+     * Acquire the next sequence number, waiting while it would be a full window ahead of
+     * the watermark.
+     *
+     * @param timeout the maximum time to wait
+     * @param unit the time unit
+     * @return the sequence number
+     * @throws InterruptedException if interrupted while waiting
+     * @throws TimeoutException if the watermark did not advance in time
+     */
+    public long acquire(long timeout, TimeUnit unit) throws InterruptedException, TimeoutException {
+        long deadline = 0L;
+        for (;;) {
+            long n = next.get();
+            if (n - watermark.get() <= mask) {
+                if (next.compareAndSet(n, n + 1)) {
+                    return n;
+                }
+                continue;
+            }
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            if (deadline == 0L) {
+                deadline = System.nanoTime() + unit.toNanos(timeout);
+            } else if (System.nanoTime() - deadline >= 0L) {
+                throw new TimeoutException("completion window full, waiting for sequence " + watermark.get());
+            }
+            LockSupport.parkNanos(this, PARK_NANOS);
+        }
+    }
+
+    /**
+     * Complete a sequence number and advance the watermark if possible.
+     *
+     * @param sequence the sequence number from {@link #acquire(long, TimeUnit)}
+     */
+    public void complete(long sequence) {
+        slots.set(index(sequence), sequence);
+        for (;;) {
+            long w = watermark.get();
+            long n = w;
+            while (n < next.get() && slots.get(index(n)) == n) {
+                n++;
+            }
+            if (n == w) {
+                return;
+            }
+            if (watermark.compareAndSet(w, n) && watermarkListener != null) {
+                watermarkListener.accept(n);
+            }
+        }
+    }
+
+    /**
+     * Return the watermark, the lowest sequence number not yet completed.
+     *
+     * @return the watermark
+     */
+    public long getWatermark() {
+        return watermark.get();
+    }
+
+    /**
+     * Return the next sequence number to be acquired.
+     *
+     * @return the next sequence number
+     */
+    public long getNext() {
+        return next.get();
+    }
+
+    private int index(long sequence) {
+        return (int) (sequence & mask);
+    }
+}
@@ -40,15 +40,46 @@ public class DefaultRunnable<R extends Request, W extends Worker<R>> implements
 
     @Override
     public void run() {
+        String workerName = Thread.currentThread().getName();
+        WorkerStartedEvent startedEvent = new WorkerStartedEvent();
+        if (startedEvent.isEnabled()) {
+            startedEvent.pool = pool.getName();
+            startedEvent.worker = workerName;
+            startedEvent.commit();
+        }
         R request = null;
         Throwable throwable = null;
         try {
             while (!closed.get()) {
+                RequestDequeuedEvent dequeuedEvent = new RequestDequeuedEvent();
+                dequeuedEvent.begin();
                 request = queue.take();
                 if (poison.equals(request)) {
                     break;
                 }
-                worker.execute(request);
+                if (dequeuedEvent.shouldCommit()) {
+                    dequeuedEvent.pool = pool.getName();
+                    dequeuedEvent.worker = workerName;
+                    dequeuedEvent.requestClass = request.getClass();
+                    dequeuedEvent.commit();
+                }
+                RequestExecutedEvent executedEvent = new RequestExecutedEvent();
+                executedEvent.begin();
+                try {
+                    worker.execute(request);
+                    executedEvent.succeeded = true;
+                } catch (Exception | AssertionError e) {
+                    afterExecute(request, e);
+                    throw e;
+                } finally {
+                    if (executedEvent.shouldCommit()) {
+                        executedEvent.pool = pool.getName();
+                        executedEvent.worker = workerName;
+                        executedEvent.requestClass = request.getClass();
+                        executedEvent.commit();
+                    }
+                }
+                afterExecute(request, null);
                 if (listener != null) {
                     listener.success(request, worker);
                 }
@@ -59,6 +90,14 @@ public class DefaultRunnable<R extends Request, W extends Worker<R>> implements
                 listener.timeout(worker, e);
             }
         } catch (Exception | AssertionError e) {
+            WorkerDiedEvent diedEvent = new WorkerDiedEvent();
+            if (diedEvent.isEnabled()) {
+                diedEvent.pool = pool.getName();
+                diedEvent.worker = workerName;
+                diedEvent.exceptionClass = e.getClass();
+                diedEvent.message = e.getMessage();
+                diedEvent.commit();
+            }
             if (listener != null) {
                 listener.failure(request, worker, e);
             }
@@ -68,4 +107,18 @@ public class DefaultRunnable<R extends Request, W extends Worker<R>> implements
             pool.close(worker, throwable);
         }
     }
+
+    /**
+     * Call the pool after a request. The pool may run listeners of its own, an exception of
+     * those is passed to the uncaught exception handler of the thread, so it neither stops
+     * the worker nor replaces the outcome of the request.
+     */
+    private void afterExecute(R request, Throwable throwable) {
+        try {
+            pool.afterExecute(request, worker, throwable);
+        } catch (RuntimeException | AssertionError e) {
+            Thread thread = Thread.currentThread();
+            thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+        }
+    }
 }
@@ -0,0 +1,104 @@
+package org.xbib.concurrent.util;
+
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * The eviction order of a cache. The policy links and unlinks nodes in its own structures,
+ * using {@link LRUCache.Node#queueType} to remember where a node is, and selects the
+ * victims when the total {@link LRUCache.Node#policyWeight} of its nodes is over its
+ * maximum. A policy is not thread-safe, it is guarded by the maintenance lock of the cache.
+ *
+ * @param <K> the key type
+ * @param <V> the value type
+ */
+interface EvictionPolicy<K, V> {
+
+    /**
+     * Set the maximum total weight of the nodes, which is the number of nodes unless the
+     * cache has a weigher.
+     *
+     * @param maximum the maximum
+     */
+    void setMaximum(long maximum);
+
+    /**
+     * Size the structures of the policy for a number of nodes. Unlike the maximum, this is
+     * always a number of nodes, also if the cache has a weigher.
+     *
+     * @param size the expected number of nodes
+     */
+    default void ensureCapacity(long size) {
+    }
+
+    /**
+     * Record a read of a node without the maintenance lock, if the policy can. This is
+     * called concurrently, and must not touch any shared structure.
+     *
+     * @param node the node
+     * @return true if the read was recorded, false if it must be buffered for
+     *         {@link #onAccess}
+     */
+    default boolean recordRead(LRUCache.Node<K, V> node) {
+        return false;
+    }
+
+    /**
+     * Link a new node.
+     *
+     * @param node the node
+     */
+    void onAdd(LRUCache.Node<K, V> node);
+
+    /**
+     * Record an access to a linked node.
+     *
+     * @param node the node
+     */
+    void onAccess(LRUCache.Node<K, V> node);
+
+    /**
+     * Change the weight of a linked node.
+     *
+     * @param node the node
+     * @param weight the new weight
+     */
+    void updateWeight(LRUCache.Node<K, V> node, int weight);
+
+    /**
+     * Unlink a removed node.
+     *
+     * @param node the node
+     */
+    void onRemove(LRUCache.Node<K, V> node);
+
+    /**
+     * Unlink victims until the policy is within its maximum, and pass each of them
+     * to the evictor.
+     *
+     * @param evictor removes the victim from the cache
+     */
+    void evict(Consumer<LRUCache.Node<K, V>> evictor);
+
+    /**
+     * Return the linked nodes that the policy would evict last, the hottest first.
+     *
+     * @param limit the maximum number of nodes
+     * @return the hottest nodes
+     */
+    List<LRUCache.Node<K, V>> hottest(int limit);
+
+    /**
+     * Return the number of linked nodes.
+     *
+     * @return the number of linked nodes
+     */
+    int size();
+
+    /**
+     * Return the total weight of the linked nodes.
+     *
+     * @return the total weight
+     */
+    long weightedSize();
+}
@@ -0,0 +1,117 @@
+package org.xbib.concurrent.util;
+
+/**
+ * A count-min sketch of 4-bit counters that estimates the popularity of elements
+ * within a time window.
+ *
+ * Each element is counted in four rows. The sixteen counters of a long word are split into
+ * groups of four, and an element uses one counter of its group in each of the four words
+ * selected by its hashes, so the estimate is the minimum of four counters. Counters saturate
+ * at 15. When the number of increments reaches the sample size, all counters are halved, so
+ * that the sketch ages and adapts to changes of popularity.
+ *
+ * The sketch is not thread-safe. It is confined to the eviction policy, which is only used
+ * under the eviction lock of the cache.
+ */
+final class FrequencySketch {
+
+    private static final long[] SEED = {
+            0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L
+    };
+
+    private static final long RESET_MASK = 0x7777777777777777L;
+
+    private long[] table;
+
+    private int tableMask;
+
+    private int sampleSize;
+
+    private int size;
+
+    FrequencySketch(long maximum) {
+        ensureCapacity(maximum);
+    }
+
+    /**
+     * Resize the sketch for the given number of elements. The counts are lost if the
+     * table is resized.
+     *
+     * @param maximum the maximum number of elements
+     */
+    void ensureCapacity(long maximum) {
+        int max = (int) Math.min(Math.max(maximum, 8L), 1 << 30);
+        if (table != null && table.length >= max) {
+            return;
+        }
+        int length = Integer.highestOneBit(max - 1) << 1;
+        table = new long[length];
+        tableMask = length - 1;
+        sampleSize = (int) Math.min(10L * max, Integer.MAX_VALUE);
+        size = 0;
+    }
+
+    /**
+     * Return the estimated frequency of an element, up to 15.
+     *
+     * @param e the element
+     * @return the estimated frequency
+     */
+    int frequency(Object e) {
+        int hash = spread(e.hashCode());
+        int start = (hash & 3) << 2;
+        int frequency = Integer.MAX_VALUE;
+        for (int i = 0; i < 4; i++) {
+            int index = indexOf(hash, i);
+            int count = (int) ((table[index] >>> ((start + i) << 2)) & 0xfL);
+            frequency = Math.min(frequency, count);
+        }
+        return frequency;
+    }
+
+    /**
+     * Increment the popularity of an element, and age the sketch if the sample size is reached.
+     *
+     * @param e the element
+     */
+    void increment(Object e) {
+        int hash = spread(e.hashCode());
+        int start = (hash & 3) << 2;
+        boolean added = false;
+        for (int i = 0; i < 4; i++) {
+            added |= incrementAt(indexOf(hash, i), start + i);
+        }
+        if (added && ++size == sampleSize) {
+            reset();
+        }
+    }
+
+    private boolean incrementAt(int i, int j) {
+        int offset = j << 2;
+        long mask = 0xfL << offset;
+        if ((table[i] & mask) == mask) {
+            return false;
+        }
+        table[i] += 1L << offset;
+        return true;
+    }
+
+    private void reset() {
+        for (int i = 0; i < table.length; i++) {
+            table[i] = (table[i] >>> 1) & RESET_MASK;
+        }
+        size -= sampleSize >>> 1;
+    }
+
+    private int indexOf(int item, int i) {
+        long hash = (item + SEED[i]) * SEED[i];
+        hash += hash >>> 32;
+        return ((int) hash) & tableMask;
+    }
+
+    private static int spread(int x) {
+        x = ((x >>> 16) ^ x) * 0x45d9f3b;
+        x = ((x >>> 16) ^ x) * 0x45d9f3b;
+        return (x >>> 16) ^ x;
+    }
+}
@@ -0,0 +1,347 @@
+package org.xbib.concurrent.util;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * A concurrent hash map with a global limit of the number of keys, and a limit per group
+ * of keys, for example requests in flight per tenant.
+ *
+ * The group of a key is derived by a classifier, which must always return the same group
+ * for a key. Like in {@link LimitedConcurrentHashMap}, a write that adds a key takes a unit
+ * of both quotas, and a removal of a key returns it, while replacing a value or removing
+ * an absent key leave them alone. A write that adds a key fails if either quota is
+ * exhausted.
+ *
+ * The global quota is split over striped counters, one per cache line, and a writer
+ * takes its unit from a random stripe and only looks at the other stripes if that one is
+ * empty. So writers rarely contend on the same counter. A removal returns the unit to a
+ * random stripe, which may be one that a writer has already scanned, so every stripe also
+ * counts the units returned to it. A writer fails only if two scans in a row find all
+ * stripes empty with the same counts, then there was a moment without any free unit. The
+ * quota of a group is a counter of its own, so different groups never contend. The
+ * counter of a group is kept after its last key is removed.
+ *
+ * Removal by the iterators of the views is not accounted, use {@link #remove(Object)}
+ * instead.
+ *
+ * @param <K> the key type
+ * @param <V> the value type
+ * @param <G> the group type
+ */
+@SuppressWarnings("serial")
+public class GroupLimitedConcurrentHashMap<K, V, G> extends ConcurrentHashMap<K, V> {
+
+    /**
+     * The distance of two stripes in the counter array, 8 longs are 64 bytes.
+     */
+    private static final int STRIPE_SHIFT = 3;
+
+    /**
+     * A returned unit, which also counts the returns in the high half of a stripe.
+     */
+    private static final long RETURN = (1L << 32) | 1L;
+
+    private final int limit;
+
+    private final int defaultGroupLimit;
+
+    private final Function<? super K, ? extends G> classifier;
+
+    /**
+     * The free units in the low half of each stripe, the number of returns in the high half.
+     */
+    private final AtomicLongArray stripes;
+
+    private final int stripeMask;
+
+    private final ConcurrentHashMap<G, Group> groups;
+
+    public GroupLimitedConcurrentHashMap(int limit, int groupLimit, Function<? super K, ? extends G> classifier) {
+        this(limit, groupLimit, classifier, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Create a map.
+     *
+     * @param limit the maximum number of keys
+     * @param groupLimit the maximum number of keys of a group, unless set by
+     *                   {@link #setGroupLimit}
+     * @param classifier returns the group of a key
+     * @param stripeCount the number of stripes of the global quota, rounded up to a power of
+     *                    two
+     */
+    public GroupLimitedConcurrentHashMap(int limit, int groupLimit, Function<? super K, ? extends G> classifier,
+                                         int stripeCount) {
+        super(16, 0.75f);
+        if (limit < 0) {
+            throw new IllegalArgumentException("limit must be >= 0");
+        }
+        if (groupLimit < 0) {
+            throw new IllegalArgumentException("groupLimit must be >= 0");
+        }
+        if (stripeCount < 1) {
+            throw new IllegalArgumentException("stripeCount must be >= 1");
+        }
+        int n = 1;
+        while (n < stripeCount) {
+            n <<= 1;
+        }
+        this.limit = limit;
+        this.defaultGroupLimit = groupLimit;
+        this.classifier = Objects.requireNonNull(classifier);
+        this.stripes = new AtomicLongArray(n << STRIPE_SHIFT);
+        this.stripeMask = n - 1;
+        this.groups = new ConcurrentHashMap<>();
+        for (int i = 0; i < n; i++) {
+            stripes.set(i << STRIPE_SHIFT, limit / n + (i < limit % n ? 1 : 0));
+        }
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    /**
+     * Set the limit of a group. If the group has more keys than the new limit, no keys
+     * are removed, but no keys can be added until it is below the limit.
+     *
+     * @param group the group
+     * @param groupLimit the maximum number of keys of the group
+     */
+    public void setGroupLimit(G group, int groupLimit) {
+        if (groupLimit < 0) {
+            throw new IllegalArgumentException("groupLimit must be >= 0");
+        }
+        groupOf(group).limit = groupLimit;
+    }
+
+    public int getGroupLimit(G group) {
+        Group g = groups.get(group);
+        return g != null ? g.limit : defaultGroupLimit;
+    }
+
+    /**
+     * Return the number of keys of a group.
+     *
+     * @param group the group
+     * @return the number of keys
+     */
+    public int getGroupSize(G group) {
+        Group g = groups.get(group);
+        return g != null ? g.size.get() : 0;
+    }
+
+    /**
+     * Return the number of keys that can be added until the global limit is reached.
+     *
+     * @return the remaining global capacity
+     */
+    public int remainingCapacity() {
+        int remaining = 0;
+        for (int i = 0; i <= stripeMask; i++) {
+            remaining += (int) stripes.get(i << STRIPE_SHIFT);
+        }
+        return remaining;
+    }
+
+    /**
+     * Map a key to a value.
+     *
+     * @param key the key
+     * @param value the value
+     * @return the previous value, or null
+     * @throws IllegalArgumentException if the key is new and the global limit or the limit
+     *                                  of its group is reached
+     */
+    @Override
+    public V put(K key, V value) {
+        V old = super.replace(key, value);
+        if (old != null) {
+            return old;
+        }
+        acquire(key);
+        old = super.put(key, value);
+        if (old != null) {
+            // another writer added the key in the meantime
+            release(key);
+        }
+        return old;
+    }
+
+    @Override
+    public V putIfAbsent(K key, V value) {
+        V present = get(key);
+        if (present != null) {
+            return present;
+        }
+        acquire(key);
+        present = super.putIfAbsent(key, value);
+        if (present != null) {
+            release(key);
+        }
+        return present;
+    }
+
+    @Override
+    public void putAll(Map<? extends K, ? extends V> m) {
+        for (Map.Entry<? extends K, ? extends V> entry : m.entrySet()) {
+            put(entry.getKey(), entry.getValue());
+        }
+    }
+
+    @Override
+    public V remove(Object key) {
+        V v = super.remove(key);
+        if (v != null) {
+            release(castKey(key));
+        }
+        return v;
+    }
+
+    @Override
+    public boolean remove(Object key, Object value) {
+        if (super.remove(key, value)) {
+            release(castKey(key));
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public void clear() {
+        for (K key : keySet()) {
+            remove(key);
+        }
+    }
+
+    @Override
+    public V computeIfAbsent(K key, Function<? super K, ? extends V> mappingFunction) {
+        Objects.requireNonNull(mappingFunction);
+        return super.computeIfAbsent(key, k -> account(k, null, mappingFunction.apply(k)));
+    }
+
+    @Override
+    public V computeIfPresent(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+        Objects.requireNonNull(remappingFunction);
+        return super.computeIfPresent(key, (k, v) -> account(k, v, remappingFunction.apply(k, v)));
+    }
+
+    @Override
+    public V compute(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+        Objects.requireNonNull(remappingFunction);
+        return super.compute(key, (k, v) -> account(k, v, remappingFunction.apply(k, v)));
+    }
+
+    @Override
+    public V merge(K key, V value, BiFunction<? super V, ? super V, ? extends V> remappingFunction) {
+        Objects.requireNonNull(value);
+        Objects.requireNonNull(remappingFunction);
+        return compute(key, (k, v) -> v != null ? remappingFunction.apply(v, value) : value);
+    }
+
+    /**
+     * Take a unit of the quota of the group of a key, and of the global quota.
+     */
+    private void acquire(K key) {
+        Group group = groupOf(classifier.apply(key));
+        if (!group.tryAcquire()) {
+            throw new IllegalArgumentException("group limit exceeded");
+        }
+        if (!tryAcquireGlobal()) {
+            group.release();
+            throw new IllegalArgumentException("size limit exceeded");
+        }
+    }
+
+    private void release(K key) {
+        groupOf(classifier.apply(key)).release();
+        int i = ThreadLocalRandom.current().nextInt() & stripeMask;
+        stripes.getAndAdd(i << STRIPE_SHIFT, RETURN);
+    }
+
+    /**
+     * Take a unit from a random stripe, or from the next stripe that is not empty. If all
+     * stripes are empty, scan again until two scans see the same stripes, because a unit
+     * may have been returned to a stripe behind the scan.
+     */
+    private boolean tryAcquireGlobal() {
+        int start = ThreadLocalRandom.current().nextInt() & stripeMask;
+        long[] previous = null;
+        while (true) {
+            long[] seen = new long[stripeMask + 1];
+            for (int n = 0; n <= stripeMask; n++) {
+                int j = (start + n) & stripeMask;
+                int i = j << STRIPE_SHIFT;
+                long stripe;
+                while ((int) (stripe = stripes.get(i)) > 0) {
+                    if (stripes.compareAndSet(i, stripe, stripe - 1)) {
+                        return true;
+                    }
+                }
+                seen[j] = stripe;
+            }
+            // no stripe had a return in between, so all were empty at the same moment
+            if (Arrays.equals(seen, previous)) {
+                return false;
+            }
+            previous = seen;
+        }
+    }
+
+    private Group groupOf(G group) {
+        Group g = groups.get(group);
+        return g != null ? g : groups.computeIfAbsent(group, k -> new Group(defaultGroupLimit));
+    }
+
+    /**
+     * Take or return the quota for a remapping, called while the key is locked. An
+     * exception leaves the mapping unchanged.
+     */
+    private V account(K key, V oldValue, V newValue) {
+        if (oldValue == null && newValue != null) {
+            acquire(key);
+        } else if (oldValue != null && newValue == null) {
+            release(key);
+        }
+        return newValue;
+    }
+
+    @SuppressWarnings("unchecked")
+    private K castKey(Object key) {
+        return (K) key;
+    }
+
+    private static final class Group {
+
+        private final AtomicInteger size;
+
+        private volatile int limit;
+
+        Group(int limit) {
+            this.size = new AtomicInteger();
+            this.limit = limit;
+        }
+
+        boolean tryAcquire() {
+            int s;
+            while ((s = size.get()) < limit) {
+                if (size.compareAndSet(s, s + 1)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        void release() {
+            size.decrementAndGet();
+        }
+    }
+}
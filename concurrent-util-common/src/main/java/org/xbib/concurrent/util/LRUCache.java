@@ -1,152 +1,1943 @@
 package org.xbib.concurrent.util;
 
-import java.util.ArrayDeque;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.lang.ref.WeakReference;
+import java.nio.file.Path;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
 import java.util.Queue;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+import java.util.function.ToIntBiFunction;
 
 /**
  * Concurrent LRU cache.
  *
- * Note that remove operation on this structure is slow.
+ * Entries are kept in a {@link ConcurrentHashMap} of nodes, and the nodes are kept in an
+ * access-ordered linked list for eviction. Reads never lock: they record the node in a
+ * lossy, striped read buffer. Writes change the map immediately and queue the change of
+ * the eviction order in a write buffer. Both buffers are drained in batches by whichever
+ * thread gets the maintenance lock, without waiting for it, which then reorders, adds,
+ * and removes nodes in O(1) and evicts the least recently used entries.
+ *
+ * The size bound is therefore enforced after the next maintenance, and the recency order
+ * reflects a sample of the reads. Without contention, maintenance runs at the end of
+ * each write.
+ *
+ * Entries can expire a fixed time after they were written, by {@link #setExpireAfterWrite},
+ * or after they were last read or written, by {@link #setExpireAfterAccess}. Expiration
+ * times are kept in a hierarchical {@link TimerWheel}, which the maintenance advances in
+ * O(1) amortized time. An expired entry is invisible to reads and lookups immediately,
+ * even if it is still counted by {@link #size()} until the maintenance removes it.
+ *
+ * By default, the cache is bounded by the number of entries. With a weigher, set by
+ * {@link #setMaxWeight}, it is bounded by the total weight of the entries instead, for
+ * example their size in bytes. The weight of an entry is computed when it is written and
+ * the total is kept by the maintenance, so concurrent writes do not contend on it.
+ *
+ * Values can be referenced softly or weakly, by {@link #setValueStrength}, so that the
+ * garbage collector may remove them. Such entries are invisible once their value was
+ * collected, and the maintenance removes them from the cache by a reference queue. With a
+ * {@link MemoryPressureMonitor}, the cache also halves its bound whenever the heap is
+ * still tight after a garbage collection, and grows back step by step when it is not.
+ *
+ * With {@link #setRefreshAfterWrite}, a read of an entry that is older than the refresh
+ * interval returns the current value and reloads it asynchronously, so readers of hot
+ * keys do not wait for the backend. The reload shares the in-flight loads, so there is
+ * at most one load or reload per key.
+ *
+ * A {@link RemovalListener}, set by {@link #setRemovalListener}, receives the removed
+ * entries with the cause of their removal. The notifications are queued and delivered in
+ * batches on an executor, never on the thread that wrote to the cache.
+ *
+ * Statistics of hits, misses, loads, and evictions are recorded after
+ * {@link #setRecordStats} and returned by {@link #stats()}.
+ *
+ * The hottest entries can be written to a snapshot file by {@link #writeSnapshot}, and
+ * loaded again by {@link #loadSnapshot} after a restart, while the cache serves requests.
+ *
+ * Missing values can be loaded by {@link #get(Object, Function)} and
+ * {@link #getAll(Iterable, Function)}. There is at most one load in flight per key,
+ * concurrent callers for the same key wait for its result instead of loading it again.
+ * Keys for which the loader found no value can be remembered for a while, by
+ * {@link #setNegativeCaching}, and a {@link BloomFilter} of the keys that exist, set by
+ * {@link #setKeyFilter}, skips the loader for keys that certainly do not exist.
+ *
+ * @param <K> the key type
+ * @param <V> the value type
  */
-@SuppressWarnings("serial")
-public class LRUCache<K, V> extends ConcurrentHashMap<K, V> {
+public class LRUCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V> {
+
+    private static final int WRITE_BUFFER_DRAIN_MAX = 1024;
+
+    private static final int WRITE_BUFFER_MAX = 4 * WRITE_BUFFER_DRAIN_MAX;
+
+    private static final int IDLE = 0;
+
+    private static final int REQUIRED = 1;
+
+    private static final int PROCESSING = 2;
+
+    private static final double MIN_CAPACITY_FACTOR = 1.0d / 64;
+
+    private static final long CAPACITY_GROWTH_INTERVAL = TimeUnit.SECONDS.toNanos(1);
+
+    private final ConcurrentHashMap<K, Node<K, V>> data;
+
+    private final ReentrantLock evictionLock;
+
+    private final EvictionPolicy<K, V> policy;
+
+    private final ReadBuffer<Node<K, V>> readBuffer;
+
+    private final Queue<Runnable> writeBuffer;
+
+    private final AtomicInteger writeBufferSize;
+
+    private final AtomicInteger drainStatus;
+
+    private final ConcurrentHashMap<K, CompletableFuture<V>> loads;
+
+    private volatile int maxSize;
+
+    private volatile long maxWeight;
+
+    private volatile ToIntBiFunction<? super K, ? super V> weigher;
+
+    private volatile long expireAfterWriteNanos;
 
-    private int maxSize;
+    private volatile long expireAfterAccessNanos;
 
-    private final Queue<K> queue;
+    private volatile ValueStrength valueStrength;
+
+    private final ReferenceQueue<V> valueQueue;
+
+    private volatile MemoryPressureMonitor memoryPressureMonitor;
+
+    private volatile boolean memoryPressure;
+
+    private volatile long refreshAfterWriteNanos;
+
+    private volatile Function<? super K, ? extends V> reloader;
+
+    private volatile Executor refreshExecutor;
+
+    private volatile LongSupplier ticker;
+
+    private volatile StatsCounter statsCounter;
+
+    private volatile RemovalBuffer<K, V> removalBuffer;
+
+    private volatile LRUCache<K, Boolean> absentKeys;
+
+    private volatile BloomFilter<? super K> keyFilter;
+
+    // guarded by the eviction lock
+
+    private double capacityFactor;
+
+    private long capacityChangeTime;
+
+    private TimerWheel<K, V> timerWheel;
+
+    private MemoryPressureListener memoryPressureListener;
+
+    private Set<Entry<K, V>> entrySet;
 
     public LRUCache(int maxSize) {
-        this.maxSize = maxSize;
-        this.queue = new ArrayDeque<>();
-        checkSize();
+        this(maxSize, new ConcurrentHashMap<>());
     }
 
     public LRUCache(int initialCapacity, int maxSize) {
-        super(initialCapacity);
-        this.maxSize = maxSize;
-        this.queue = new ArrayDeque<>();
-        checkSize();
+        this(maxSize, new ConcurrentHashMap<>(initialCapacity));
     }
 
     public LRUCache(Map<? extends K, ? extends V> m, int maxSize) {
-        super(m);
-        this.maxSize = maxSize;
-        this.queue = new ArrayDeque<>();
-        checkSize();
-        for (K k: m.keySet()) {
-            entryAdded(k);
-        }
-        checkRemoveOldest();
+        this(maxSize, new ConcurrentHashMap<>(Math.max(m.size(), 16)));
+        putAll(m);
     }
 
     public LRUCache(int initialCapacity, float loadFactor, int maxSize) {
-        super(initialCapacity, loadFactor);
-        this.maxSize = maxSize;
-        this.queue = new ArrayDeque<>();
-        checkSize();
+        this(maxSize, new ConcurrentHashMap<>(initialCapacity, loadFactor));
     }
 
     public LRUCache(int initialCapacity, float loadFactor, int concurrencyLevel, int maxSize) {
-        super(initialCapacity, loadFactor, concurrencyLevel);
+        this(maxSize, new ConcurrentHashMap<>(initialCapacity, loadFactor, concurrencyLevel));
+    }
+
+    private LRUCache(int maxSize, ConcurrentHashMap<K, Node<K, V>> data) {
+        this(maxSize, data, new LRUPolicy<>(maxSize));
+    }
+
+    LRUCache(int maxSize, ConcurrentHashMap<K, Node<K, V>> data, EvictionPolicy<K, V> policy) {
+        this.data = data;
         this.maxSize = maxSize;
-        this.queue = new ArrayDeque<>();
+        this.evictionLock = new ReentrantLock();
+        this.policy = policy;
+        this.readBuffer = new ReadBuffer<>();
+        this.writeBuffer = new ConcurrentLinkedQueue<>();
+        this.writeBufferSize = new AtomicInteger();
+        this.drainStatus = new AtomicInteger(IDLE);
+        this.loads = new ConcurrentHashMap<>();
+        this.ticker = System::nanoTime;
+        this.statsCounter = StatsCounter.DISABLED;
+        this.valueStrength = ValueStrength.STRONG;
+        this.valueQueue = new ReferenceQueue<>();
+        this.capacityFactor = 1.0d;
+        this.timerWheel = new TimerWheel<>(ticker.getAsLong());
         checkSize();
     }
 
+    /**
+     * Set the maximum number of entries. It has no effect while the cache is bounded by
+     * weight.
+     *
+     * @param maxSize the maximum number of entries
+     */
     public void setMaxSize(int maxSize) {
         this.maxSize = maxSize;
-        checkRemoveOldest();
+        checkSize();
+        evictionLock.lock();
+        try {
+            if (weigher == null) {
+                updateMaximum();
+                maintenance();
+            }
+        } finally {
+            unlockAndDrain();
+        }
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Bound the cache by the total weight of its entries instead of their number. Existing
+     * entries are weighed again, and those that are heavier than the maximum weight are
+     * evicted with {@link RemovalCause#SIZE}, like the entries over the bound. Writing an
+     * entry that is heavier than the maximum weight fails with an
+     * {@link IllegalArgumentException}.
+     *
+     * @param maxWeight the maximum total weight
+     * @param weigher the weigher, returns the weight of an entry, must not be negative
+     */
+    public void setMaxWeight(long maxWeight, ToIntBiFunction<? super K, ? super V> weigher) {
+        Objects.requireNonNull(weigher);
+        if (maxWeight < 1L) {
+            throw new IllegalArgumentException("maxWeight must be >= 1");
+        }
+        evictionLock.lock();
+        try {
+            this.maxWeight = maxWeight;
+            this.weigher = weigher;
+            List<Node<K, V>> oversized = new ArrayList<>();
+            for (K key : data.keySet()) {
+                data.computeIfPresent(key, (k, n) -> {
+                    V value = n.getValue();
+                    if (value != null) {
+                        int weight = weigh(k, value, Long.MAX_VALUE);
+                        if (weight > maxWeight) {
+                            n.alive = false;
+                            oversized.add(n);
+                            return null;
+                        }
+                        n.weight = weight;
+                    }
+                    return n;
+                });
+            }
+            for (Node<K, V> node : oversized) {
+                onRemove(node);
+                statsCounter.recordEviction();
+                notifyRemoval(node.key, node.getValue(), RemovalCause.SIZE);
+            }
+            for (Node<K, V> node : data.values()) {
+                if (node.queueType != Node.UNLINKED) {
+                    policy.updateWeight(node, node.weight);
+                }
+            }
+            updateMaximum();
+            maintenance();
+        } finally {
+            unlockAndDrain();
+        }
+    }
+
+    /**
+     * Return the maximum total weight, or 0 if the cache is bounded by the number of entries.
+     *
+     * @return the maximum total weight
+     */
+    public long getMaxWeight() {
+        return weigher != null ? maxWeight : 0L;
+    }
+
+    /**
+     * Let entries expire after a fixed duration since they were created or their value
+     * was last replaced.
+     *
+     * @param duration the duration, 0 to disable
+     * @param unit the time unit
+     */
+    public void setExpireAfterWrite(long duration, TimeUnit unit) {
+        if (duration < 0L) {
+            throw new IllegalArgumentException("duration must be >= 0");
+        }
+        evictionLock.lock();
+        try {
+            boolean expired = expires();
+            expireAfterWriteNanos = unit.toNanos(duration);
+            expirationChanged(expired);
+        } finally {
+            unlockAndDrain();
+        }
+    }
+
+    /**
+     * Let entries expire after a fixed duration since they were last read or written.
+     *
+     * @param duration the duration, 0 to disable
+     * @param unit the time unit
+     */
+    public void setExpireAfterAccess(long duration, TimeUnit unit) {
+        if (duration < 0L) {
+            throw new IllegalArgumentException("duration must be >= 0");
+        }
+        evictionLock.lock();
+        try {
+            boolean expired = expires();
+            expireAfterAccessNanos = unit.toNanos(duration);
+            expirationChanged(expired);
+        } finally {
+            unlockAndDrain();
+        }
+    }
+
+    public long getExpireAfterWrite(TimeUnit unit) {
+        return unit.convert(expireAfterWriteNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public long getExpireAfterAccess(TimeUnit unit) {
+        return unit.convert(expireAfterAccessNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Set how values are referenced. Existing values are referenced again.
+     *
+     * @param valueStrength the value strength
+     */
+    public void setValueStrength(ValueStrength valueStrength) {
+        Objects.requireNonNull(valueStrength);
+        evictionLock.lock();
+        try {
+            this.valueStrength = valueStrength;
+            for (K key : data.keySet()) {
+                data.computeIfPresent(key, (k, n) -> {
+                    V value = n.getValue();
+                    if (value != null) {
+                        n.setValue(value, valueStrength, valueQueue);
+                    }
+                    return n;
+                });
+            }
+            maintenance();
+        } finally {
+            unlockAndDrain();
+        }
+    }
+
+    public ValueStrength getValueStrength() {
+        return valueStrength;
+    }
+
+    /**
+     * Adapt the bound of the cache to memory pressure. On each notification of the monitor,
+     * the bound is halved, down to 1/64 of the maximum. Once the heap is not tight anymore
+     * after a garbage collection, the maintenance doubles the bound at most once a second,
+     * up to the maximum. The monitor references the cache only weakly, so a cache that is
+     * not used anymore can be collected without removing the monitor first.
+     *
+     * @param monitor the monitor, or null to use the maximum again
+     */
+    public void setMemoryPressureMonitor(MemoryPressureMonitor monitor) {
+        evictionLock.lock();
+        try {
+            if (memoryPressureMonitor != null) {
+                memoryPressureMonitor.removeListener(memoryPressureListener);
+                memoryPressureListener = null;
+            }
+            memoryPressureMonitor = monitor;
+            if (monitor != null) {
+                memoryPressureListener = new WeakMemoryPressureListener(this, monitor);
+                monitor.addListener(memoryPressureListener);
+            } else {
+                memoryPressure = false;
+                capacityFactor = 1.0d;
+                updateMaximum();
+            }
+        } finally {
+            unlockAndDrain();
+        }
+    }
+
+    /**
+     * Return the fraction of the maximum size or weight that the cache is currently bounded
+     * to because of memory pressure.
+     *
+     * @return the capacity factor, 1 without memory pressure
+     */
+    public double getCapacityFactor() {
+        evictionLock.lock();
+        try {
+            return capacityFactor;
+        } finally {
+            unlockAndDrain();
+        }
+    }
+
+    /**
+     * Reload entries asynchronously when they are read after a duration since they were
+     * written. The read returns the current value. The reloaded value replaces the entry
+     * only if it was not written in the meantime, a null value removes it. A failed reload
+     * keeps the current value and is counted as a load failure, a load that waited for the
+     * reload gets the failure.
+     *
+     * @param duration the duration, 0 to disable
+     * @param unit the time unit
+     * @param reloader the reloader
+     * @param executor the executor of the reloads
+     */
+    public void setRefreshAfterWrite(long duration, TimeUnit unit,
+                                     Function<? super K, ? extends V> reloader, Executor executor) {
+        Objects.requireNonNull(reloader);
+        Objects.requireNonNull(executor);
+        if (duration < 0L) {
+            throw new IllegalArgumentException("duration must be >= 0");
+        }
+        evictionLock.lock();
+        try {
+            if (!expires() && refreshAfterWriteNanos == 0L) {
+                // the write times were not recorded
+                long now = ticker.getAsLong();
+                for (Node<K, V> node : data.values()) {
+                    node.writeTime = now;
+                    node.accessTime = now;
+                }
+            }
+            this.reloader = reloader;
+            this.refreshExecutor = executor;
+            this.refreshAfterWriteNanos = unit.toNanos(duration);
+        } finally {
+            unlockAndDrain();
+        }
+    }
+
+    public long getRefreshAfterWrite(TimeUnit unit) {
+        return unit.convert(refreshAfterWriteNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Remember the keys for which a loader returned no value, so that they are not loaded
+     * again until they expire. The absent keys are kept in a cache of their own, so they
+     * do not count against the bound of this cache. Writing a value for a key forgets
+     * that it was absent.
+     *
+     * @param maxSize the maximum number of absent keys, or 0 to disable negative caching
+     * @param duration the time after which an absent key is loaded again
+     * @param unit the unit of the duration
+     */
+    public void setNegativeCaching(int maxSize, long duration, TimeUnit unit) {
+        if (maxSize < 0) {
+            throw new IllegalArgumentException("maxSize must be >= 0");
+        }
+        if (maxSize == 0) {
+            absentKeys = null;
+            return;
+        }
+        if (duration <= 0L) {
+            throw new IllegalArgumentException("duration must be > 0");
+        }
+        LRUCache<K, Boolean> cache = new LRUCache<>(maxSize);
+        cache.setExpireAfterWrite(duration, unit);
+        absentKeys = cache;
+    }
+
+    /**
+     * Return the number of remembered absent keys.
+     *
+     * @return the number of absent keys
+     */
+    public int absentSize() {
+        LRUCache<K, Boolean> absent = absentKeys;
+        return absent != null ? absent.size() : 0;
+    }
+
+    /**
+     * Set a filter of the keys that exist in the backend. A key that is not in the
+     * filter is certainly absent, so it is not loaded. The filter must contain all keys
+     * that exist, keys that are written to the cache are added to it.
+     *
+     * @param keyFilter the filter, or null to load all keys
+     */
+    public void setKeyFilter(BloomFilter<? super K> keyFilter) {
+        this.keyFilter = keyFilter;
+    }
+
+    /**
+     * Set a listener for removed entries. The listener is called on the executor, with
+     * batches of the notifications that were queued in the meantime, and never
+     * concurrently.
+     *
+     * @param listener the listener, or null to remove the listener
+     * @param executor the executor of the listener
+     */
+    public void setRemovalListener(RemovalListener<K, V> listener, Executor executor) {
+        if (listener == null) {
+            removalBuffer = null;
+        } else {
+            Objects.requireNonNull(executor);
+            removalBuffer = new RemovalBuffer<>(listener, executor);
+        }
+    }
+
+    /**
+     * Enable or disable the recording of statistics. Enabling starts from zero.
+     *
+     * @param recordStats true to record statistics
+     */
+    public void setRecordStats(boolean recordStats) {
+        statsCounter = recordStats ? new StatsCounter() : StatsCounter.DISABLED;
+    }
+
+    public boolean isRecordStats() {
+        return statsCounter != StatsCounter.DISABLED;
+    }
+
+    /**
+     * Return a snapshot of the statistics, which are empty if they are not recorded.
+     *
+     * @return the statistics
+     */
+    public CacheStats stats() {
+        return statsCounter.snapshot();
+    }
+
+    /**
+     * Replace the time source, for testing.
+     *
+     * @param ticker the time source in nanoseconds
+     */
+    void setTicker(LongSupplier ticker) {
+        evictionLock.lock();
+        try {
+            timerWheel.forEach(timerWheel::deschedule);
+            this.ticker = ticker;
+            this.timerWheel = new TimerWheel<>(ticker.getAsLong());
+            expirationChanged(false);
+        } finally {
+            unlockAndDrain();
+        }
+    }
+
+    @Override
+    public int size() {
+        return data.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return data.isEmpty();
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        Node<K, V> node = data.get(key);
+        return node != null && node.getValue() != null && !hasExpired(node, now());
+    }
+
+    @Override
+    public boolean containsValue(Object value) {
+        Objects.requireNonNull(value);
+        long now = now();
+        for (Node<K, V> node : data.values()) {
+            if (value.equals(node.getValue()) && !hasExpired(node, now)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public V get(Object key) {
+        return getIfPresent(key, true);
     }
 
     @Override
     public V put(K key, V value) {
-        V v = super.put(key, value);
-        if (v == null) {
-            entryAdded(key);
+        Objects.requireNonNull(key);
+        Objects.requireNonNull(value);
+        int weight = weigh(key, value);
+        long now = now();
+        @SuppressWarnings("unchecked")
+        V[] old = (V[]) new Object[1];
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        Node<K, V>[] expired = new Node[1];
+        Node<K, V> node = data.compute(key, (k, n) -> {
+            V current = n != null ? n.getValue() : null;
+            if (current == null || hasExpired(n, now)) {
+                if (n != null) {
+                    n.alive = false;
+                    expired[0] = n;
+                }
+                return newNode(k, value, weight, now);
+            }
+            old[0] = current;
+            n.setValue(value, valueStrength, valueQueue);
+            n.weight = weight;
+            n.writeTime = now;
+            n.accessTime = now;
+            return n;
+        });
+        if (old[0] == null) {
+            afterWrite(new AddTask(node, expired[0]));
+            if (expired[0] != null) {
+                notifyExpired(expired[0]);
+            }
+            onPresent(key);
+        } else {
+            afterWrite(() -> onUpdate(node));
+            notifyRemoval(key, old[0], RemovalCause.REPLACED);
         }
-        checkRemoveOldest();
-        return v;
+        return old[0];
     }
 
     @Override
-    public void putAll(Map<? extends K, ? extends V> m) {
-        for (K k: m.keySet()) {
-            if (!super.containsKey(k)) {
-                entryAdded(k);
+    public V putIfAbsent(K key, V value) {
+        Objects.requireNonNull(key);
+        Objects.requireNonNull(value);
+        int weight = weigh(key, value);
+        long now = now();
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        Node<K, V>[] replaced = new Node[1];
+        @SuppressWarnings("unchecked")
+        V[] present = (V[]) new Object[1];
+        Node<K, V> node = data.compute(key, (k, n) -> {
+            V current = n != null ? n.getValue() : null;
+            if (current == null || hasExpired(n, now)) {
+                if (n != null) {
+                    n.alive = false;
+                    replaced[0] = n;
+                }
+                return newNode(k, value, weight, now);
+            }
+            present[0] = current;
+            return n;
+        });
+        if (present[0] == null) {
+            afterWrite(new AddTask(node, replaced[0]));
+            if (replaced[0] != null) {
+                notifyExpired(replaced[0]);
+            }
+            onPresent(key);
+            return null;
+        }
+        if (expireAfterAccessNanos > 0L) {
+            node.accessTime = now;
+        }
+        afterRead(node);
+        return present[0];
+    }
+
+    /**
+     * Get the value for a key, loading it if it is absent. Only one load per key is in
+     * flight at a time, other callers for the key wait for it and share its result. A
+     * failed load is not cached, it is rethrown to all callers that waited for it. The
+     * loader must not load the same key again. A key that is known to be absent is not
+     * loaded.
+     *
+     * @param key the key
+     * @param loader the loader, may return null if there is no value
+     * @return the value, or null if the loader returned null
+     */
+    public V get(K key, Function<? super K, ? extends V> loader) {
+        return get(key, loader, true);
+    }
+
+    /**
+     * Get the value for a key, loading it if it is absent, and consult and record the keys
+     * that are known to be absent only if asked to.
+     */
+    private V get(K key, Function<? super K, ? extends V> loader, boolean absentKeys) {
+        Objects.requireNonNull(loader);
+        V value = getIfPresent(key, true);
+        if (value != null || absentKeys && isKnownAbsent(key)) {
+            return value;
+        }
+        CompletableFuture<V> future = new CompletableFuture<>();
+        CompletableFuture<V> inFlight = loads.putIfAbsent(key, future);
+        if (inFlight != null) {
+            return join(inFlight);
+        }
+        try {
+            // a load may have completed between the lookup and the registration
+            value = getIfPresent(key, false);
+            if (value == null) {
+                value = load(key, loader);
+                if (value != null) {
+                    V present = putIfAbsent(key, value);
+                    if (present != null) {
+                        value = present;
+                    }
+                } else if (absentKeys) {
+                    onAbsent(key);
+                }
             }
+            future.complete(value);
+            return value;
+        } catch (RuntimeException | Error e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            loads.remove(key, future);
         }
-        super.putAll(m);
-        checkRemoveOldest();
     }
 
+    /**
+     * Get the values for keys, loading the absent ones in one call of the bulk loader.
+     * Keys that are loaded by other callers at the same time are not passed to the bulk
+     * loader, their loads are awaited instead, and keys that are known to be absent are
+     * not passed either. All entries that the bulk loader returns are cached. A failed
+     * load is not cached.
+     *
+     * @param keys the keys
+     * @param bulkLoader the bulk loader, returns a map of the keys that have values
+     * @return the present values of the keys, in the order of the keys
+     */
+    public Map<K, V> getAll(Iterable<? extends K> keys,
+                            Function<? super Set<K>, ? extends Map<? extends K, ? extends V>> bulkLoader) {
+        Objects.requireNonNull(bulkLoader);
+        Map<K, V> result = new LinkedHashMap<>();
+        Map<K, CompletableFuture<V>> owned = new LinkedHashMap<>();
+        Map<K, CompletableFuture<V>> awaited = new LinkedHashMap<>();
+        for (K key : keys) {
+            if (result.containsKey(key) || owned.containsKey(key) || awaited.containsKey(key)) {
+                continue;
+            }
+            V value = getIfPresent(key, true);
+            if (value != null) {
+                result.put(key, value);
+                continue;
+            }
+            if (isKnownAbsent(key)) {
+                continue;
+            }
+            CompletableFuture<V> future = new CompletableFuture<>();
+            CompletableFuture<V> inFlight = loads.putIfAbsent(key, future);
+            if (inFlight != null) {
+                awaited.put(key, inFlight);
+            } else {
+                owned.put(key, future);
+            }
+        }
+        if (!owned.isEmpty()) {
+            load(owned, bulkLoader);
+        }
+        for (Entry<K, CompletableFuture<V>> entry : owned.entrySet()) {
+            V value = entry.getValue().join();
+            if (value != null) {
+                result.put(entry.getKey(), value);
+            }
+        }
+        for (Entry<K, CompletableFuture<V>> entry : awaited.entrySet()) {
+            V value = join(entry.getValue());
+            if (value != null) {
+                result.put(entry.getKey(), value);
+            }
+        }
+        // keep the order of the keys
+        Map<K, V> ordered = new LinkedHashMap<>();
+        for (K key : keys) {
+            V value = result.get(key);
+            if (value != null) {
+                ordered.put(key, value);
+            }
+        }
+        return ordered;
+    }
+
+    /**
+     * Get the value for a key, computing it if it is absent, like
+     * {@link #get(Object, Function)}. Unlike a load, the function is called also for keys
+     * that are known to be absent, and a null result is not remembered, so that a key can
+     * always be added by this method.
+     *
+     * @param key the key
+     * @param mappingFunction the function, may return null if there is no value
+     * @return the value, or null if the function returned null
+     */
     @Override
-    public V remove(Object key) {
-        V v = super.remove(key);
-        if (v != null) {
-            entryRemoved(key);
+    public V computeIfAbsent(K key, Function<? super K, ? extends V> mappingFunction) {
+        return get(key, mappingFunction, false);
+    }
+
+    /**
+     * Compute a new value for a key atomically. The function is called at most once,
+     * while other writers of the key wait, so it must be short and must not write to
+     * this cache. An expired entry is passed as absent.
+     *
+     * @param key the key
+     * @param remappingFunction computes the new value from the current value or null,
+     *                          returns null to remove the entry
+     * @return the new value, or null
+     */
+    @Override
+    public V compute(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+        Objects.requireNonNull(remappingFunction);
+        return remap(key, remappingFunction);
+    }
+
+    @Override
+    public V computeIfPresent(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+        Objects.requireNonNull(remappingFunction);
+        return remap(key, (k, v) -> v != null ? remappingFunction.apply(k, v) : null);
+    }
+
+    @Override
+    public V merge(K key, V value, BiFunction<? super V, ? super V, ? extends V> remappingFunction) {
+        Objects.requireNonNull(value);
+        Objects.requireNonNull(remappingFunction);
+        return remap(key, (k, v) -> v != null ? remappingFunction.apply(v, value) : value);
+    }
+
+    @Override
+    public void putAll(Map<? extends K, ? extends V> m) {
+        for (Entry<? extends K, ? extends V> entry : m.entrySet()) {
+            put(entry.getKey(), entry.getValue());
         }
-        return v;
     }
 
     @Override
-    public void clear() {
-        super.clear();
-        queue.clear();
+    public V replace(K key, V value) {
+        Objects.requireNonNull(key);
+        Objects.requireNonNull(value);
+        int weight = weigh(key, value);
+        @SuppressWarnings("unchecked")
+        V[] old = (V[]) new Object[1];
+        long now = now();
+        Node<K, V> node = data.computeIfPresent(key, (k, n) -> {
+            V current = n.getValue();
+            if (current == null || hasExpired(n, now)) {
+                return n;
+            }
+            old[0] = current;
+            n.setValue(value, valueStrength, valueQueue);
+            n.weight = weight;
+            n.writeTime = now;
+            n.accessTime = now;
+            return n;
+        });
+        if (old[0] != null) {
+            afterWrite(() -> onUpdate(node));
+            notifyRemoval(key, old[0], RemovalCause.REPLACED);
+        }
+        return old[0];
     }
 
     @Override
-    public V putIfAbsent(K key, V value) {
-        V v = super.putIfAbsent(key, value);
-        if (v == null) {
-            entryAdded(key);
+    public boolean replace(K key, V oldValue, V newValue) {
+        Objects.requireNonNull(key);
+        Objects.requireNonNull(oldValue);
+        Objects.requireNonNull(newValue);
+        int weight = weigh(key, newValue);
+        long now = now();
+        boolean[] replaced = new boolean[1];
+        Node<K, V> node = data.computeIfPresent(key, (k, n) -> {
+            if (oldValue.equals(n.getValue()) && !hasExpired(n, now)) {
+                n.setValue(newValue, valueStrength, valueQueue);
+                n.weight = weight;
+                n.writeTime = now;
+                n.accessTime = now;
+                replaced[0] = true;
+            }
+            return n;
+        });
+        if (replaced[0]) {
+            afterWrite(() -> onUpdate(node));
+            notifyRemoval(key, oldValue, RemovalCause.REPLACED);
         }
-        checkRemoveOldest();
-        return v;
+        return replaced[0];
+    }
+
+    @Override
+    public V remove(Object key) {
+        Node<K, V> node = data.remove(key);
+        if (node == null) {
+            return null;
+        }
+        node.alive = false;
+        afterWrite(() -> onRemove(node));
+        V value = node.getValue();
+        if (value == null || hasExpired(node, now())) {
+            notifyExpired(node);
+            return null;
+        }
+        notifyRemoval(node.key, value, RemovalCause.EXPLICIT);
+        return value;
     }
 
     @Override
     public boolean remove(Object key, Object value) {
-        boolean removed = super.remove(key, value);
-        if (removed) {
-            entryRemoved(value);
+        if (key == null || value == null) {
+            return false;
+        }
+        long now = now();
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        Node<K, V>[] removed = new Node[1];
+        @SuppressWarnings("unchecked")
+        V[] removedValue = (V[]) new Object[1];
+        data.computeIfPresent(castKey(key), (k, n) -> {
+            V current = n.getValue();
+            if (value.equals(current) && !hasExpired(n, now)) {
+                n.alive = false;
+                removed[0] = n;
+                removedValue[0] = current;
+                return null;
+            }
+            return n;
+        });
+        if (removed[0] == null) {
+            return false;
         }
-        return removed;
+        Node<K, V> node = removed[0];
+        afterWrite(() -> onRemove(node));
+        notifyRemoval(node.key, removedValue[0], RemovalCause.EXPLICIT);
+        return true;
     }
 
     @Override
-    public V merge(K key, V value, BiFunction<? super V, ? super V, ? extends V> remappingFunction) {
-        throw new UnsupportedOperationException();
+    public void clear() {
+        for (K key : data.keySet()) {
+            remove(key);
+        }
+    }
+
+    @Override
+    public Set<Entry<K, V>> entrySet() {
+        Set<Entry<K, V>> es = entrySet;
+        return es != null ? es : (entrySet = new EntrySetView());
     }
 
+    /**
+     * Return the number of entries in the eviction order, after applying all pending
+     * changes.
+     *
+     * @return the number of entries in the eviction order
+     */
     public int queueSize() {
-        return queue.size();
+        evictionLock.lock();
+        try {
+            maintenance();
+            return policy.size();
+        } finally {
+            unlockAndDrain();
+        }
+    }
+
+    /**
+     * Return the total weight of the entries in the eviction order, after applying all
+     * pending changes. Without a weigher, this is the number of entries.
+     *
+     * @return the total weight
+     */
+    public long weightedSize() {
+        evictionLock.lock();
+        try {
+            maintenance();
+            return policy.weightedSize();
+        } finally {
+            unlockAndDrain();
+        }
+    }
+
+    /**
+     * Write the entries that the eviction policy would evict last to a snapshot file, the
+     * coldest of them first. Expiration and refresh times are not written.
+     *
+     * @param path the path of the snapshot file, which is replaced when it is complete
+     * @param limit the maximum number of entries
+     * @param keySerializer the serializer of the keys
+     * @param valueSerializer the serializer of the values
+     * @return the number of written entries
+     * @throws IOException if the snapshot can not be written
+     */
+    public int writeSnapshot(Path path, int limit, Serializer<? super K> keySerializer,
+                             Serializer<? super V> valueSerializer) throws IOException {
+        List<Node<K, V>> nodes;
+        evictionLock.lock();
+        try {
+            maintenance();
+            nodes = policy.hottest(limit);
+        } finally {
+            unlockAndDrain();
+        }
+        long now = now();
+        List<Entry<K, V>> entries = new ArrayList<>(nodes.size());
+        for (int i = nodes.size() - 1; i >= 0; i--) {
+            Node<K, V> node = nodes.get(i);
+            V value = node.getValue();
+            if (value != null && node.alive && !hasExpired(node, now)) {
+                entries.add(new SimpleImmutableEntry<>(node.key, value));
+            }
+        }
+        return CacheSnapshot.write(path, entries, keySerializer, valueSerializer);
+    }
+
+    /**
+     * Load a snapshot file on an executor, while the cache serves requests. The entries
+     * are added by {@link #putIfAbsent}, so values that are written in the meantime are not
+     * replaced. The snapshot starts with the coldest entries, so the hottest entries are
+     * the most recently used ones after loading.
+     *
+     * @param path the path of the snapshot file
+     * @param keySerializer the serializer of the keys
+     * @param valueSerializer the serializer of the values
+     * @param executor the executor of the load
+     * @return a future of the number of loaded entries, which fails with an
+     * {@link UncheckedIOException} if the snapshot can not be read
+     */
+    public CompletableFuture<Integer> loadSnapshot(Path path, Serializer<? extends K> keySerializer,
+                                                   Serializer<? extends V> valueSerializer, Executor executor) {
+        return CompletableFuture.supplyAsync(() -> {
+            int[] count = new int[1];
+            try {
+                CacheSnapshot.<K, V>read(path, keySerializer, valueSerializer, (key, value) -> {
+                    if (putIfAbsent(key, value) == null) {
+                        count[0]++;
+                    }
+                });
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return count[0];
+        }, executor);
+    }
+
+    /**
+     * Apply all pending changes to the eviction order and evict entries if the cache is
+     * over its bound.
+     */
+    public void cleanUp() {
+        evictionLock.lock();
+        try {
+            maintenance();
+        } finally {
+            unlockAndDrain();
+        }
+    }
+
+    private void load(Map<K, CompletableFuture<V>> owned,
+                      Function<? super Set<K>, ? extends Map<? extends K, ? extends V>> bulkLoader) {
+        try {
+            Set<K> missing = new LinkedHashSet<>();
+            for (Entry<K, CompletableFuture<V>> entry : owned.entrySet()) {
+                // a load may have completed between the lookup and the registration
+                V value = getIfPresent(entry.getKey(), false);
+                if (value != null) {
+                    entry.getValue().complete(value);
+                } else {
+                    missing.add(entry.getKey());
+                }
+            }
+            if (!missing.isEmpty()) {
+                Map<? extends K, ? extends V> loaded;
+                long start = System.nanoTime();
+                try {
+                    loaded = bulkLoader.apply(Collections.unmodifiableSet(missing));
+                } catch (RuntimeException | Error e) {
+                    statsCounter.recordLoadFailure(System.nanoTime() - start);
+                    throw e;
+                }
+                if (loaded == null) {
+                    statsCounter.recordLoadFailure(System.nanoTime() - start);
+                    throw new NullPointerException("bulk loader returned null");
+                }
+                statsCounter.recordLoadSuccess(System.nanoTime() - start);
+                for (Entry<? extends K, ? extends V> entry : loaded.entrySet()) {
+                    if (entry.getKey() == null || entry.getValue() == null) {
+                        continue;
+                    }
+                    V value = entry.getValue();
+                    V present = putIfAbsent(entry.getKey(), value);
+                    CompletableFuture<V> future = owned.get(entry.getKey());
+                    if (future != null) {
+                        future.complete(present != null ? present : value);
+                    }
+                }
+            }
+            for (Entry<K, CompletableFuture<V>> entry : owned.entrySet()) {
+                if (entry.getValue().complete(null)) {
+                    onAbsent(entry.getKey());
+                }
+            }
+        } catch (RuntimeException | Error e) {
+            for (CompletableFuture<V> future : owned.values()) {
+                future.completeExceptionally(e);
+            }
+            throw e;
+        } finally {
+            for (Entry<K, CompletableFuture<V>> entry : owned.entrySet()) {
+                loads.remove(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    private V load(K key, Function<? super K, ? extends V> loader) {
+        long start = System.nanoTime();
+        V value;
+        try {
+            value = loader.apply(key);
+        } catch (RuntimeException | Error e) {
+            statsCounter.recordLoadFailure(System.nanoTime() - start);
+            throw e;
+        }
+        if (value != null) {
+            statsCounter.recordLoadSuccess(System.nanoTime() - start);
+        } else {
+            statsCounter.recordLoadFailure(System.nanoTime() - start);
+        }
+        return value;
+    }
+
+    private V getIfPresent(Object key, boolean recordStats) {
+        Node<K, V> node = data.get(key);
+        if (node == null) {
+            if (recordStats) {
+                statsCounter.recordMisses(1);
+            }
+            return null;
+        }
+        V value = node.getValue();
+        if (value == null) {
+            if (recordStats) {
+                statsCounter.recordMisses(1);
+            }
+            return null;
+        }
+        long refreshAfterWrite = refreshAfterWriteNanos;
+        if (expires() || refreshAfterWrite > 0L) {
+            long now = ticker.getAsLong();
+            if (hasExpired(node, now)) {
+                if (recordStats) {
+                    statsCounter.recordMisses(1);
+                }
+                scheduleDrain();
+                return null;
+            }
+            if (expireAfterAccessNanos > 0L) {
+                node.accessTime = now;
+            }
+            if (refreshAfterWrite > 0L && now - node.writeTime >= refreshAfterWrite) {
+                refresh(node.key, value);
+            }
+        }
+        if (recordStats) {
+            statsCounter.recordHits(1);
+        }
+        afterRead(node);
+        return value;
+    }
+
+    /**
+     * Reload a value on the refresh executor, unless a load or reload of the key is in
+     * flight.
+     */
+    private void refresh(K key, V oldValue) {
+        if (loads.containsKey(key)) {
+            return;
+        }
+        CompletableFuture<V> future = new CompletableFuture<>();
+        if (loads.putIfAbsent(key, future) != null) {
+            return;
+        }
+        Function<? super K, ? extends V> reloader = this.reloader;
+        try {
+            refreshExecutor.execute(() -> {
+                try {
+                    V value = load(key, reloader);
+                    if (value == null) {
+                        remove(key, oldValue);
+                        onAbsent(key);
+                    } else if (!replace(key, oldValue, value)) {
+                        value = getIfPresent(key, false);
+                    }
+                    future.complete(value);
+                } catch (RuntimeException | Error e) {
+                    // the old value stays in the cache, but a load that joined the reload
+                    // may be for an expired entry, so it gets the failure like any load
+                    future.completeExceptionally(e);
+                } finally {
+                    loads.remove(key, future);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            loads.remove(key, future);
+            future.completeExceptionally(e);
+        }
+    }
+
+    private static <V> V join(CompletableFuture<V> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw e;
+        }
+    }
+
+    private void afterRead(Node<K, V> node) {
+        // the timer wheel still needs the reads to reschedule expiration after access
+        if (policy.recordRead(node) && expireAfterAccessNanos == 0L) {
+            return;
+        }
+        if (readBuffer.offer(node) == ReadBuffer.FULL) {
+            scheduleDrain();
+        }
+    }
+
+    private void afterWrite(Runnable task) {
+        writeBuffer.add(task);
+        if (writeBufferSize.incrementAndGet() > WRITE_BUFFER_MAX) {
+            // the maintenance falls behind the writers, so the writer waits and helps
+            evictionLock.lock();
+            try {
+                maintenance();
+            } finally {
+                unlockAndDrain();
+            }
+        } else {
+            drainStatus.set(REQUIRED);
+            scheduleDrain();
+        }
+    }
+
+    /**
+     * Run the maintenance if the lock is free. If another thread holds the lock, the drain
+     * status stays required, and that thread runs the maintenance again after it releases
+     * the lock.
+     */
+    private void scheduleDrain() {
+        while (evictionLock.tryLock()) {
+            try {
+                maintenance();
+            } finally {
+                evictionLock.unlock();
+            }
+            if (drainStatus.get() != REQUIRED) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Release the lock and drain the writes that arrived while the lock was held.
+     */
+    private void unlockAndDrain() {
+        evictionLock.unlock();
+        if (drainStatus.get() == REQUIRED) {
+            scheduleDrain();
+        }
+    }
+
+    private void maintenance() {
+        drainStatus.set(PROCESSING);
+        readBuffer.drainTo(this::onAccess);
+        Runnable task;
+        int drained = 0;
+        while (drained < WRITE_BUFFER_DRAIN_MAX && (task = writeBuffer.poll()) != null) {
+            task.run();
+            drained++;
+        }
+        writeBufferSize.addAndGet(-drained);
+        if (!writeBuffer.isEmpty()) {
+            drainStatus.set(REQUIRED);
+        } else {
+            // a writer that added meanwhile has set the status to required
+            drainStatus.compareAndSet(PROCESSING, IDLE);
+        }
+        drainValueReferences();
+        expire();
+        updateCapacity();
+        ensureCapacity();
+        evict();
+    }
+
+    private void onAdd(Node<K, V> node) {
+        // the node may have been removed before its addition is applied
+        if (node.alive && node.queueType == Node.UNLINKED) {
+            node.policyWeight = node.weight;
+            policy.onAdd(node);
+            if (expires()) {
+                schedule(node);
+            }
+        }
+    }
+
+    private void onAccess(Node<K, V> node) {
+        if (node.queueType != Node.UNLINKED) {
+            policy.onAccess(node);
+            if (expireAfterAccessNanos > 0L) {
+                schedule(node);
+            }
+        }
+    }
+
+    private void onUpdate(Node<K, V> node) {
+        if (node.queueType != Node.UNLINKED) {
+            int weight = node.weight;
+            if (weight != node.policyWeight) {
+                policy.updateWeight(node, weight);
+            }
+            policy.onAccess(node);
+            if (expires()) {
+                schedule(node);
+            }
+        }
+    }
+
+    private void onRemove(Node<K, V> node) {
+        if (node.queueType != Node.UNLINKED) {
+            policy.onRemove(node);
+            timerWheel.deschedule(node);
+        }
     }
 
-    private void entryAdded(K k) {
-        queue.add(k);
+    private void evict() {
+        policy.evict(this::evicted);
     }
 
-    private void entryRemoved(Object o) {
-        if (!queue.remove(o)) {
-            throw new IllegalStateException("Failed to remove");
+    private void evicted(Node<K, V> node) {
+        timerWheel.deschedule(node);
+        if (data.remove(node.key, node)) {
+            node.alive = false;
+            statsCounter.recordEviction();
+            V value = node.getValue();
+            notifyRemoval(node.key, value, value != null ? RemovalCause.SIZE : RemovalCause.COLLECTED);
         }
     }
 
-    private void checkRemoveOldest() {
-        while (queue.size() > maxSize) {
-            K k = queue.poll();
-            if (k != null) {
-                super.remove(k);
+    /**
+     * Remove the entries whose values were collected.
+     */
+    @SuppressWarnings("unchecked")
+    private void drainValueReferences() {
+        Reference<? extends V> polled;
+        while ((polled = valueQueue.poll()) != null) {
+            Reference<? extends V> reference = polled;
+            Node<K, V> node = ((ValueReference<K, V>) reference).getNode();
+            boolean[] removed = new boolean[1];
+            data.computeIfPresent(node.key, (k, n) -> {
+                if (n == node && n.value == reference) {
+                    n.alive = false;
+                    removed[0] = true;
+                    return null;
+                }
+                return n;
+            });
+            if (removed[0]) {
+                onRemove(node);
+                statsCounter.recordEviction();
+                notifyRemoval(node.key, null, RemovalCause.COLLECTED);
+            }
+        }
+    }
+
+    /**
+     * Remap the value of a key in the map, and queue the change of the eviction order
+     * like the write that it amounts to: an add, an update, or a removal.
+     */
+    private V remap(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+        Objects.requireNonNull(key);
+        long now = now();
+        // the old and the new value
+        @SuppressWarnings("unchecked")
+        V[] values = (V[]) new Object[2];
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        Node<K, V>[] removed = new Node[1];
+        boolean[] added = new boolean[1];
+        Node<K, V> node = data.compute(key, (k, n) -> {
+            V current = n != null ? n.getValue() : null;
+            if (current != null && !hasExpired(n, now)) {
+                values[0] = current;
+            }
+            V value = remappingFunction.apply(k, values[0]);
+            values[1] = value;
+            if (value == null) {
+                if (n != null) {
+                    n.alive = false;
+                    removed[0] = n;
+                }
+                return null;
+            }
+            int weight = weigh(k, value);
+            if (values[0] == null) {
+                if (n != null) {
+                    n.alive = false;
+                    removed[0] = n;
+                }
+                added[0] = true;
+                return newNode(k, value, weight, now);
+            }
+            n.setValue(value, valueStrength, valueQueue);
+            n.weight = weight;
+            n.writeTime = now;
+            n.accessTime = now;
+            return n;
+        });
+        if (added[0]) {
+            afterWrite(new AddTask(node, removed[0]));
+            if (removed[0] != null) {
+                notifyExpired(removed[0]);
+            }
+            onPresent(key);
+            return values[1];
+        }
+        if (node == null) {
+            if (removed[0] != null) {
+                Node<K, V> r = removed[0];
+                afterWrite(() -> onRemove(r));
+                if (values[0] != null) {
+                    notifyRemoval(key, values[0], RemovalCause.EXPLICIT);
+                } else {
+                    notifyExpired(r);
+                }
             }
+            return null;
+        }
+        afterWrite(() -> onUpdate(node));
+        if (values[0] != values[1]) {
+            notifyRemoval(key, values[0], RemovalCause.REPLACED);
+        }
+        return values[1];
+    }
+
+    private boolean isKnownAbsent(K key) {
+        BloomFilter<? super K> filter = keyFilter;
+        if (filter != null && !filter.mightContain(key)) {
+            return true;
+        }
+        LRUCache<K, Boolean> absent = absentKeys;
+        return absent != null && absent.get(key) != null;
+    }
+
+    private void onAbsent(K key) {
+        LRUCache<K, Boolean> absent = absentKeys;
+        if (absent != null) {
+            absent.put(key, Boolean.TRUE);
+        }
+    }
+
+    /**
+     * Record that a key has a value after it was written.
+     */
+    private void onPresent(K key) {
+        LRUCache<K, Boolean> absent = absentKeys;
+        if (absent != null) {
+            absent.remove(key);
+        }
+        BloomFilter<? super K> filter = keyFilter;
+        if (filter != null) {
+            filter.put(key);
+        }
+    }
+
+    private void notifyRemoval(K key, V value, RemovalCause cause) {
+        RemovalBuffer<K, V> buffer = removalBuffer;
+        if (buffer != null) {
+            buffer.add(key, value, cause);
         }
     }
 
+    /**
+     * Notify the removal of an expired node, or of a node whose value was collected.
+     */
+    private void notifyExpired(Node<K, V> node) {
+        V value = node.getValue();
+        notifyRemoval(node.key, value, value != null ? RemovalCause.EXPIRED : RemovalCause.COLLECTED);
+    }
+
+    /**
+     * Called on the notification thread of the JVM, which must not wait for the lock. The
+     * bound is halved by the next maintenance.
+     */
+    private void onMemoryPressure() {
+        memoryPressure = true;
+        drainStatus.set(REQUIRED);
+        scheduleDrain();
+    }
+
+    /**
+     * Halve the bound on memory pressure, and grow it back when the memory pressure is over.
+     */
+    private void updateCapacity() {
+        MemoryPressureMonitor monitor = memoryPressureMonitor;
+        if (memoryPressure) {
+            memoryPressure = false;
+            if (monitor != null) {
+                capacityFactor = Math.max(MIN_CAPACITY_FACTOR, capacityFactor / 2);
+                capacityChangeTime = System.nanoTime();
+                updateMaximum();
+            }
+        } else if (capacityFactor < 1.0d && monitor != null) {
+            long now = System.nanoTime();
+            if (now - capacityChangeTime >= CAPACITY_GROWTH_INTERVAL && !monitor.isUnderPressure()) {
+                capacityFactor = Math.min(1.0d, capacityFactor * 2);
+                capacityChangeTime = now;
+                updateMaximum();
+            }
+        }
+    }
+
+    /**
+     * Size the policy for the number of entries. With a weigher, the maximum is a total
+     * weight, like bytes, so the policy grows with the entries instead.
+     */
+    private void ensureCapacity() {
+        policy.ensureCapacity(weigher != null ? policy.size() : maxSize);
+    }
+
+    private void updateMaximum() {
+        long maximum = weigher != null ? maxWeight : maxSize;
+        policy.setMaximum(Math.max(1L, (long) (maximum * capacityFactor)));
+    }
+
+    private Node<K, V> newNode(K key, V value, int weight, long now) {
+        Node<K, V> node = new Node<>(key, null, weight, now);
+        node.setValue(value, valueStrength, valueQueue);
+        return node;
+    }
+
+    private void expire() {
+        if (expires()) {
+            long now = ticker.getAsLong();
+            timerWheel.advance(now, node -> expire(node, now));
+        }
+    }
+
+    /**
+     * Remove a node that is due in the timer wheel, if it is still expired.
+     *
+     * @return false if the node was used in the meantime and must be scheduled again
+     */
+    private boolean expire(Node<K, V> node, long now) {
+        boolean[] expired = new boolean[1];
+        data.computeIfPresent(node.key, (k, n) -> {
+            if (n == node && hasExpired(n, now)) {
+                n.alive = false;
+                expired[0] = true;
+                return null;
+            }
+            return n;
+        });
+        if (expired[0]) {
+            policy.onRemove(node);
+            statsCounter.recordEviction();
+            notifyExpired(node);
+            return true;
+        }
+        if (!node.alive) {
+            // removed by a write whose task is pending
+            return true;
+        }
+        node.variableTime = expirationTime(node);
+        return false;
+    }
+
+    private void schedule(Node<K, V> node) {
+        node.variableTime = expirationTime(node);
+        timerWheel.schedule(node);
+    }
+
+    /**
+     * Apply a change of the expiration settings to the existing entries.
+     */
+    private void expirationChanged(boolean expired) {
+        if (!expires()) {
+            timerWheel.forEach(timerWheel::deschedule);
+            return;
+        }
+        long now = ticker.getAsLong();
+        for (Node<K, V> node : data.values()) {
+            if (!expired) {
+                // the times were not recorded while expiration was disabled
+                node.writeTime = now;
+                node.accessTime = now;
+            }
+            if (node.queueType != Node.UNLINKED) {
+                schedule(node);
+            }
+        }
+    }
+
+    private boolean expires() {
+        return expireAfterWriteNanos > 0L || expireAfterAccessNanos > 0L;
+    }
+
+    private long now() {
+        return expires() || refreshAfterWriteNanos > 0L ? ticker.getAsLong() : 0L;
+    }
+
+    private boolean hasExpired(Node<K, V> node, long now) {
+        long expireAfterWrite = expireAfterWriteNanos;
+        long expireAfterAccess = expireAfterAccessNanos;
+        return (expireAfterWrite > 0L && now - node.writeTime >= expireAfterWrite)
+                || (expireAfterAccess > 0L && now - node.accessTime >= expireAfterAccess);
+    }
+
+    private long expirationTime(Node<K, V> node) {
+        long time = Long.MAX_VALUE;
+        long expireAfterWrite = expireAfterWriteNanos;
+        long expireAfterAccess = expireAfterAccessNanos;
+        if (expireAfterWrite > 0L) {
+            time = node.writeTime + expireAfterWrite;
+        }
+        if (expireAfterAccess > 0L) {
+            long accessExpiration = node.accessTime + expireAfterAccess;
+            if (time == Long.MAX_VALUE || accessExpiration - time < 0L) {
+                time = accessExpiration;
+            }
+        }
+        return time;
+    }
+
+    private int weigh(K key, V value) {
+        return weigher != null ? weigh(key, value, maxWeight) : 1;
+    }
+
+    private int weigh(K key, V value, long maxWeight) {
+        int weight = weigher.applyAsInt(key, value);
+        if (weight < 0) {
+            throw new IllegalArgumentException("weight must be >= 0");
+        }
+        if (weight > maxWeight) {
+            throw new IllegalArgumentException("weight " + weight + " exceeds maxWeight " + maxWeight);
+        }
+        return weight;
+    }
+
     private void checkSize() {
         if (maxSize < 1) {
             throw new IllegalArgumentException("maxSize must be >= 1");
         }
     }
-}
\ No newline at end of file
+
+    @SuppressWarnings("unchecked")
+    private K castKey(Object key) {
+        return (K) key;
+    }
+
+    /**
+     * A cache entry, linked into the eviction order.
+     *
+     * @param <K> the key type
+     * @param <V> the value type
+     */
+    static final class Node<K, V> {
+
+        static final int UNLINKED = 0;
+
+        final K key;
+
+        /**
+         * The value, or a {@link ValueReference} to it.
+         */
+        volatile Object value;
+
+        volatile boolean alive;
+
+        volatile int weight;
+
+        volatile long writeTime;
+
+        volatile long accessTime;
+
+        /**
+         * A coarse timestamp of the last read for sampling policies, written without the
+         * lock by plain writes.
+         */
+        int readTime;
+
+        // guarded by the eviction lock
+
+        int queueType;
+
+        int policyIndex;
+
+        Node<K, V> prev;
+
+        Node<K, V> next;
+
+        int policyWeight;
+
+        long variableTime;
+
+        Node<K, V> timerPrev;
+
+        Node<K, V> timerNext;
+
+        Node(K key, V value) {
+            this(key, value, 1, 0L);
+        }
+
+        Node(K key, V value, int weight, long now) {
+            this.key = key;
+            this.value = value;
+            this.weight = weight;
+            this.alive = true;
+            this.writeTime = now;
+            this.accessTime = now;
+        }
+
+        /**
+         * Return the value, or null if it was collected.
+         */
+        @SuppressWarnings("unchecked")
+        V getValue() {
+            Object v = value;
+            return v instanceof ValueReference ? ((ValueReference<K, V>) v).get() : (V) v;
+        }
+
+        void setValue(V value, ValueStrength strength, ReferenceQueue<V> queue) {
+            switch (strength) {
+                case SOFT:
+                    this.value = new SoftValueReference<>(this, value, queue);
+                    break;
+                case WEAK:
+                    this.value = new WeakValueReference<>(this, value, queue);
+                    break;
+                default:
+                    this.value = value;
+                    break;
+            }
+        }
+    }
+
+    /**
+     * A reference to a value that knows its node, so that the node can be removed when the
+     * value is collected.
+     */
+    interface ValueReference<K, V> {
+
+        Node<K, V> getNode();
+
+        V get();
+    }
+
+    static final class SoftValueReference<K, V> extends SoftReference<V> implements ValueReference<K, V> {
+
+        private final Node<K, V> node;
+
+        SoftValueReference(Node<K, V> node, V value, ReferenceQueue<V> queue) {
+            super(value, queue);
+            this.node = node;
+        }
+
+        @Override
+        public Node<K, V> getNode() {
+            return node;
+        }
+    }
+
+    static final class WeakValueReference<K, V> extends WeakReference<V> implements ValueReference<K, V> {
+
+        private final Node<K, V> node;
+
+        WeakValueReference(Node<K, V> node, V value, ReferenceQueue<V> queue) {
+            super(value, queue);
+            this.node = node;
+        }
+
+        @Override
+        public Node<K, V> getNode() {
+            return node;
+        }
+    }
+
+    /**
+     * Registered at a monitor for a cache. The monitor usually lives as long as the JVM, so
+     * it must not keep the cache reachable. The listener removes itself from the monitor
+     * once the cache was collected.
+     */
+    private static final class WeakMemoryPressureListener implements MemoryPressureListener {
+
+        private final WeakReference<LRUCache<?, ?>> cache;
+
+        private final MemoryPressureMonitor monitor;
+
+        WeakMemoryPressureListener(LRUCache<?, ?> cache, MemoryPressureMonitor monitor) {
+            this.cache = new WeakReference<>(cache);
+            this.monitor = monitor;
+        }
+
+        @Override
+        public void onMemoryPressure() {
+            LRUCache<?, ?> c = cache.get();
+            if (c != null) {
+                c.onMemoryPressure();
+            } else {
+                monitor.removeListener(this);
+            }
+        }
+    }
+
+    /**
+     * Links a new node, after unlinking the expired node that it replaced, if any.
+     */
+    private final class AddTask implements Runnable {
+
+        private final Node<K, V> node;
+
+        private final Node<K, V> replaced;
+
+        AddTask(Node<K, V> node, Node<K, V> replaced) {
+            this.node = node;
+            this.replaced = replaced;
+        }
+
+        @Override
+        public void run() {
+            if (replaced != null) {
+                onRemove(replaced);
+            }
+            onAdd(node);
+        }
+    }
+
+    private final class EntrySetView extends AbstractSet<Entry<K, V>> {
+
+        @Override
+        public int size() {
+            return LRUCache.this.size();
+        }
+
+        @Override
+        public void clear() {
+            LRUCache.this.clear();
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            if (!(o instanceof Entry)) {
+                return false;
+            }
+            Entry<?, ?> entry = (Entry<?, ?>) o;
+            Node<K, V> node = data.get(entry.getKey());
+            if (node == null) {
+                return false;
+            }
+            V value = node.getValue();
+            return value != null && value.equals(entry.getValue()) && !hasExpired(node, now());
+        }
+
+        @Override
+        public boolean remove(Object o) {
+            if (!(o instanceof Entry)) {
+                return false;
+            }
+            Entry<?, ?> entry = (Entry<?, ?>) o;
+            return LRUCache.this.remove(entry.getKey(), entry.getValue());
+        }
+
+        @Override
+        public Iterator<Entry<K, V>> iterator() {
+            Iterator<Node<K, V>> it = data.values().iterator();
+            long now = now();
+            return new Iterator<>() {
+
+                private Node<K, V> next;
+
+                private V nextValue;
+
+                private K last;
+
+                @Override
+                public boolean hasNext() {
+                    while (next == null && it.hasNext()) {
+                        Node<K, V> node = it.next();
+                        V value = node.getValue();
+                        if (value != null && !hasExpired(node, now)) {
+                            next = node;
+                            nextValue = value;
+                        }
+                    }
+                    return next != null;
+                }
+
+                @Override
+                public Entry<K, V> next() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    Node<K, V> node = next;
+                    next = null;
+                    last = node.key;
+                    return new WriteThroughEntry(node.key, nextValue);
+                }
+
+                @Override
+                public void remove() {
+                    if (last == null) {
+                        throw new IllegalStateException();
+                    }
+                    LRUCache.this.remove(last);
+                    last = null;
+                }
+            };
+        }
+    }
+
+    @SuppressWarnings("serial")
+    private final class WriteThroughEntry extends SimpleEntry<K, V> {
+
+        WriteThroughEntry(K key, V value) {
+            super(key, value);
+        }
+
+        @Override
+        public V setValue(V value) {
+            put(getKey(), value);
+            return super.setValue(value);
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package org.xbib.concurrent.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Least recently used eviction on a single access-ordered list.
+ *
+ * @param <K> the key type
+ * @param <V> the value type
+ */
+final class LRUPolicy<K, V> implements EvictionPolicy<K, V> {
+
+    private static final int ACCESS_ORDER = 1;
+
+    private final AccessOrderDeque<K, V> accessOrder;
+
+    private long maximum;
+
+    LRUPolicy(long maximum) {
+        this.accessOrder = new AccessOrderDeque<>();
+        this.maximum = maximum;
+    }
+
+    @Override
+    public void setMaximum(long maximum) {
+        this.maximum = maximum;
+    }
+
+    @Override
+    public void onAdd(LRUCache.Node<K, V> node) {
+        node.queueType = ACCESS_ORDER;
+        accessOrder.addLast(node);
+    }
+
+    @Override
+    public void onAccess(LRUCache.Node<K, V> node) {
+        accessOrder.moveToBack(node);
+    }
+
+    @Override
+    public void updateWeight(LRUCache.Node<K, V> node, int weight) {
+        accessOrder.updateWeight(node, weight);
+    }
+
+    @Override
+    public void onRemove(LRUCache.Node<K, V> node) {
+        node.queueType = LRUCache.Node.UNLINKED;
+        accessOrder.unlink(node);
+    }
+
+    @Override
+    public void evict(Consumer<LRUCache.Node<K, V>> evictor) {
+        while (accessOrder.weight() > maximum) {
+            LRUCache.Node<K, V> node = accessOrder.peekFirst();
+            onRemove(node);
+            evictor.accept(node);
+        }
+    }
+
+    @Override
+    public List<LRUCache.Node<K, V>> hottest(int limit) {
+        List<LRUCache.Node<K, V>> list = new ArrayList<>(Math.min(limit, accessOrder.size()));
+        accessOrder.addDescending(list, limit);
+        return list;
+    }
+
+    @Override
+    public int size() {
+        return accessOrder.size();
+    }
+
+    @Override
+    public long weightedSize() {
+        return accessOrder.weight();
+    }
+}
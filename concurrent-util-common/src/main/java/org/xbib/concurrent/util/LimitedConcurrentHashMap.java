@@ -1,34 +1,228 @@
 package org.xbib.concurrent.util;
 
+import java.util.Map;
+import java.util.Objects;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+import java.util.function.Function;
 
+/**
+ * A concurrent hash map with a limit of the number of keys, for example a registry of
+ * requests in flight.
+ *
+ * Every key holds a permit of a semaphore. A write that adds a key takes a permit, and a
+ * removal of a key returns it, while a write that replaces the value of a key and a
+ * removal of an absent key leave the permits alone, so the permits always match the
+ * size. {@link #put} fails if the limit is reached, {@link #putBlocking} waits until a
+ * key is removed, and {@link #tryPut} waits up to a timeout, so the map can bound the
+ * work in flight without retry loops. Removal by the iterators of the views is not
+ * accounted, use {@link #remove(Object)} instead.
+ *
+ * @param <K> the key type
+ * @param <V> the value type
+ */
 @SuppressWarnings("serial")
 public class LimitedConcurrentHashMap<K, V> extends ConcurrentHashMap<K, V> {
 
     private final Semaphore semaphore;
 
+    private final int limit;
+
     public LimitedConcurrentHashMap(int limit) {
+        this(limit, false);
+    }
+
+    /**
+     * Create a map.
+     *
+     * @param limit the maximum number of keys
+     * @param fair true if blocked writers get the free capacity in the order of their arrival
+     */
+    public LimitedConcurrentHashMap(int limit, boolean fair) {
         super(16, 0.75f);
-        this.semaphore = new Semaphore(limit);
+        if (limit < 0) {
+            throw new IllegalArgumentException("limit must be >= 0");
+        }
+        this.semaphore = new Semaphore(limit, fair);
+        this.limit = limit;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    /**
+     * Return the number of keys that can be added without waiting.
+     *
+     * @return the remaining capacity
+     */
+    public int remainingCapacity() {
+        return semaphore.availablePermits();
     }
 
+    /**
+     * Map a key to a value.
+     *
+     * @param key the key
+     * @param value the value
+     * @return the previous value, or null
+     * @throws IllegalArgumentException if the key is new and the limit is reached
+     */
     @Override
     public V put(K key, V value) {
-        if (semaphore.tryAcquire()) {
-            return super.put(key, value);
+        V old = super.replace(key, value);
+        if (old != null) {
+            return old;
+        }
+        if (!semaphore.tryAcquire()) {
+            throw new IllegalArgumentException("size limit exceeded");
+        }
+        return add(key, value);
+    }
+
+    /**
+     * Map a key to a value, and wait until a key is removed if the key is new and the
+     * limit is reached.
+     *
+     * @param key the key
+     * @param value the value
+     * @return the previous value, or null
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public V putBlocking(K key, V value) throws InterruptedException {
+        V old = super.replace(key, value);
+        if (old != null) {
+            return old;
+        }
+        semaphore.acquire();
+        return add(key, value);
+    }
+
+    /**
+     * Map a key to a value, and wait up to a timeout until a key is removed if the key is
+     * new and the limit is reached.
+     *
+     * @param key the key
+     * @param value the value
+     * @param timeout the maximum time to wait
+     * @param unit the unit of the timeout
+     * @return true if the key was mapped, false if the timeout elapsed
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public boolean tryPut(K key, V value, long timeout, TimeUnit unit) throws InterruptedException {
+        if (super.replace(key, value) != null) {
+            return true;
+        }
+        if (!semaphore.tryAcquire(timeout, unit)) {
+            return false;
+        }
+        add(key, value);
+        return true;
+    }
+
+    @Override
+    public V putIfAbsent(K key, V value) {
+        V present = get(key);
+        if (present != null) {
+            return present;
+        }
+        if (!semaphore.tryAcquire()) {
+            present = get(key);
+            if (present != null) {
+                return present;
+            }
+            throw new IllegalArgumentException("size limit exceeded");
+        }
+        present = super.putIfAbsent(key, value);
+        if (present != null) {
+            semaphore.release();
+        }
+        return present;
+    }
+
+    @Override
+    public void putAll(Map<? extends K, ? extends V> m) {
+        for (Map.Entry<? extends K, ? extends V> entry : m.entrySet()) {
+            put(entry.getKey(), entry.getValue());
         }
-        throw new IllegalArgumentException("size limit exceeded");
     }
 
     @Override
     public V remove(Object key) {
-        V v;
-        try {
-            v = super.remove(key);
-        } finally {
+        V v = super.remove(key);
+        if (v != null) {
             semaphore.release();
         }
         return v;
     }
+
+    @Override
+    public boolean remove(Object key, Object value) {
+        if (super.remove(key, value)) {
+            semaphore.release();
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public void clear() {
+        for (K key : keySet()) {
+            remove(key);
+        }
+    }
+
+    @Override
+    public V computeIfAbsent(K key, Function<? super K, ? extends V> mappingFunction) {
+        Objects.requireNonNull(mappingFunction);
+        return super.computeIfAbsent(key, k -> account(null, mappingFunction.apply(k)));
+    }
+
+    @Override
+    public V computeIfPresent(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+        Objects.requireNonNull(remappingFunction);
+        return super.computeIfPresent(key, (k, v) -> account(v, remappingFunction.apply(k, v)));
+    }
+
+    @Override
+    public V compute(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+        Objects.requireNonNull(remappingFunction);
+        return super.compute(key, (k, v) -> account(v, remappingFunction.apply(k, v)));
+    }
+
+    @Override
+    public V merge(K key, V value, BiFunction<? super V, ? super V, ? extends V> remappingFunction) {
+        Objects.requireNonNull(value);
+        Objects.requireNonNull(remappingFunction);
+        return compute(key, (k, v) -> v != null ? remappingFunction.apply(v, value) : value);
+    }
+
+    /**
+     * Add a key for which a permit is held, and return the permit if another writer added
+     * the key in the meantime.
+     */
+    private V add(K key, V value) {
+        V old = super.put(key, value);
+        if (old != null) {
+            semaphore.release();
+        }
+        return old;
+    }
+
+    /**
+     * Take or return a permit for a remapping, called while the key is locked. An
+     * exception leaves the mapping unchanged.
+     */
+    private V account(V oldValue, V newValue) {
+        if (oldValue == null && newValue != null) {
+            if (!semaphore.tryAcquire()) {
+                throw new IllegalArgumentException("size limit exceeded");
+            }
+        } else if (oldValue != null && newValue == null) {
+            semaphore.release();
+        }
+        return newValue;
+    }
 }
@@ -0,0 +1,256 @@
+package org.xbib.concurrent.util;
+
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.LongFunction;
+
+/**
+ * Concurrent cache with primitive {@code long} keys.
+ *
+ * The cache is split into segments by the key hash. Every segment is a {@link LongObjectMap}
+ * with a reference bit per slot, sized for its share of the maximum so that it never
+ * resizes, and guarded by a {@link StampedLock}. Reads are optimistic: they probe the map
+ * without locking, validate the stamp, and fall back to the read lock only if a write
+ * interfered. A read sets the reference bit of the entry. When a write exceeds the size of
+ * a segment, the CLOCK algorithm, an approximation of least recently used, evicts an entry
+ * whose bit is not set.
+ *
+ * There are no nodes and no boxed keys, an entry costs about 17 bytes of the tables with
+ * compressed references, and 23 bytes without. Only a load of a missing value boxes its
+ * key, to register it as in flight, so the load runs without the lock of the segment.
+ *
+ * @param <V> the value type
+ */
+public class LongLRUCache<V> {
+
+    private final Segment<V>[] segments;
+
+    private final int shift;
+
+    private final int maxSize;
+
+    private final ConcurrentHashMap<Long, CompletableFuture<V>> loads;
+
+    public LongLRUCache(int maxSize) {
+        this(Runtime.getRuntime().availableProcessors(), maxSize);
+    }
+
+    /**
+     * Create a cache.
+     *
+     * @param segmentCount the number of segments, rounded up to a power of two
+     * @param maxSize the maximum number of entries of all segments
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public LongLRUCache(int segmentCount, int maxSize) {
+        if (segmentCount < 1) {
+            throw new IllegalArgumentException("segmentCount must be >= 1");
+        }
+        int bits = 32 - Integer.numberOfLeadingZeros(segmentCount - 1);
+        int n = 1 << bits;
+        if (maxSize < n) {
+            throw new IllegalArgumentException("maxSize must be >= number of segments");
+        }
+        this.segments = new Segment[n];
+        this.shift = 64 - bits;
+        this.maxSize = maxSize;
+        this.loads = new ConcurrentHashMap<>();
+        for (int i = 0; i < n; i++) {
+            segments[i] = new Segment<>(maxSize / n + (i < maxSize % n ? 1 : 0));
+        }
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public V get(long key) {
+        return segmentFor(key).get(key);
+    }
+
+    /**
+     * Get the value for a key, loading it if it is absent. The load runs without a lock, and
+     * only one load per key is in flight at a time, other callers for the key wait for it
+     * and share its result. A failed load is not cached, it is rethrown to all callers that
+     * waited for it. The loader must not load the same key again.
+     *
+     * @param key the key
+     * @param loader the loader, may return null if there is no value
+     * @return the value, or null if the loader returned null
+     */
+    public V get(long key, LongFunction<? extends V> loader) {
+        Objects.requireNonNull(loader);
+        Segment<V> segment = segmentFor(key);
+        V value = segment.get(key);
+        if (value != null) {
+            return value;
+        }
+        CompletableFuture<V> future = new CompletableFuture<>();
+        CompletableFuture<V> inFlight = loads.putIfAbsent(key, future);
+        if (inFlight != null) {
+            return join(inFlight);
+        }
+        try {
+            // a load may have completed between the lookup and the registration
+            value = segment.get(key);
+            if (value == null) {
+                value = loader.apply(key);
+                if (value != null) {
+                    V present = segment.put(key, value, true);
+                    if (present != null) {
+                        value = present;
+                    }
+                }
+            }
+            future.complete(value);
+            return value;
+        } catch (RuntimeException | Error e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            loads.remove(key, future);
+        }
+    }
+
+    public boolean containsKey(long key) {
+        return segmentFor(key).get(key) != null;
+    }
+
+    public V put(long key, V value) {
+        Objects.requireNonNull(value);
+        return segmentFor(key).put(key, value, false);
+    }
+
+    public V putIfAbsent(long key, V value) {
+        Objects.requireNonNull(value);
+        return segmentFor(key).put(key, value, true);
+    }
+
+    public V remove(long key) {
+        return segmentFor(key).remove(key);
+    }
+
+    public int size() {
+        int size = 0;
+        for (Segment<V> segment : segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    public void clear() {
+        for (Segment<V> segment : segments) {
+            segment.clear();
+        }
+    }
+
+    private static <V> V join(CompletableFuture<V> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw e;
+        }
+    }
+
+    private Segment<V> segmentFor(long key) {
+        // other bits than the ones of the table index in the segment
+        return segments[shift == 64 ? 0 : (int) ((key * 0xC2B2AE3D27D4EB4FL) >>> shift)];
+    }
+
+    private static final class Segment<V> {
+
+        private final StampedLock lock;
+
+        private final LongObjectMap<V> map;
+
+        private final int maxSize;
+
+        Segment(int maxSize) {
+            this.lock = new StampedLock();
+            this.map = new LongObjectMap<>(maxSize + 1, true);
+            this.maxSize = maxSize;
+        }
+
+        V get(long key) {
+            long stamp = lock.tryOptimisticRead();
+            int i = map.indexOf(key);
+            V value = map.valueAt(i);
+            if (!lock.validate(stamp)) {
+                stamp = lock.readLock();
+                try {
+                    i = map.indexOf(key);
+                    value = map.valueAt(i);
+                } finally {
+                    lock.unlockRead(stamp);
+                }
+            }
+            if (value != null) {
+                map.reference(i);
+            }
+            return value;
+        }
+
+        V put(long key, V value, boolean onlyIfAbsent) {
+            long stamp = lock.writeLock();
+            try {
+                V old = map.get(key);
+                if (old == null) {
+                    add(key, value);
+                } else if (!onlyIfAbsent) {
+                    map.put(key, value);
+                }
+                return old;
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        V remove(long key) {
+            long stamp = lock.writeLock();
+            try {
+                return map.remove(key);
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        int size() {
+            long stamp = lock.readLock();
+            try {
+                return map.size();
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+
+        void clear() {
+            long stamp = lock.writeLock();
+            try {
+                map.clear();
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        private void add(long key, V value) {
+            if (map.size() >= maxSize) {
+                map.evict();
+            }
+            map.put(key, value);
+        }
+    }
+}
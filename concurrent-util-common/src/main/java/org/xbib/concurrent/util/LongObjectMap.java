@@ -0,0 +1,311 @@
+package org.xbib.concurrent.util;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * A hash map from primitive {@code long} keys to objects, without boxing.
+ *
+ * Keys and values are kept in two parallel arrays with open addressing and linear probing.
+ * An empty slot has no value, so null values are not allowed, and all keys are. The tables
+ * are not rounded to a power of two, a hash is mapped to a slot by multiplication, so the
+ * load factor stays close to its maximum. Removal shifts the following entries of a probe
+ * sequence back, so there are no tombstones and lookups stay short. With the load factor
+ * of 0.75, an entry costs about 16 bytes with compressed references, instead of about 80
+ * bytes for a boxed key in a {@link java.util.HashMap}.
+ *
+ * The map is not thread-safe. A lookup never fails on a concurrent modification, it may
+ * only return a wrong result, so that it can run optimistically under a
+ * {@link java.util.concurrent.locks.StampedLock} which validates the result.
+ *
+ * @param <V> the value type
+ */
+public class LongObjectMap<V> {
+
+    private static final float LOAD_FACTOR = 0.75f;
+
+    private static final int MAX_CAPACITY = Integer.MAX_VALUE - 8;
+
+    private long[] keys;
+
+    private Object[] values;
+
+    private byte[] referenced;
+
+    private int size;
+
+    private int threshold;
+
+    private int hand;
+
+    public LongObjectMap() {
+        this(16);
+    }
+
+    /**
+     * Create a map that does not resize up to an expected size.
+     *
+     * @param expectedSize the expected size
+     */
+    public LongObjectMap(int expectedSize) {
+        this(expectedSize, false);
+    }
+
+    /**
+     * Create a map, with reference bits for CLOCK eviction by {@link #evict()} if requested.
+     */
+    LongObjectMap(int expectedSize, boolean clock) {
+        if (expectedSize < 0) {
+            throw new IllegalArgumentException("expectedSize must be >= 0");
+        }
+        int capacity = tableSize(expectedSize);
+        this.keys = new long[capacity];
+        this.values = new Object[capacity];
+        this.referenced = clock ? new byte[capacity] : null;
+        this.threshold = (int) (capacity * LOAD_FACTOR);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public boolean containsKey(long key) {
+        return indexOf(key) >= 0;
+    }
+
+    public V get(long key) {
+        return valueAt(indexOf(key));
+    }
+
+    /**
+     * Map a key to a value.
+     *
+     * @param key the key
+     * @param value the value
+     * @return the previous value, or null
+     */
+    public V put(long key, V value) {
+        Objects.requireNonNull(value);
+        int length = keys.length;
+        int i = slot(key, length);
+        Object v;
+        while ((v = values[i]) != null) {
+            if (keys[i] == key) {
+                values[i] = value;
+                @SuppressWarnings("unchecked")
+                V old = (V) v;
+                return old;
+            }
+            i = next(i, length);
+        }
+        keys[i] = key;
+        values[i] = value;
+        if (++size > threshold) {
+            resize();
+        }
+        return null;
+    }
+
+    /**
+     * Map a key to a value if it is not mapped.
+     *
+     * @param key the key
+     * @param value the value
+     * @return the present value, or null if the value was mapped
+     */
+    public V putIfAbsent(long key, V value) {
+        V present = get(key);
+        return present != null ? present : put(key, value);
+    }
+
+    /**
+     * Remove a key.
+     *
+     * @param key the key
+     * @return the removed value, or null
+     */
+    public V remove(long key) {
+        int i = indexOf(key);
+        if (i < 0) {
+            return null;
+        }
+        V value = valueAt(i);
+        removeAt(i);
+        return value;
+    }
+
+    public void clear() {
+        Arrays.fill(values, null);
+        if (referenced != null) {
+            Arrays.fill(referenced, (byte) 0);
+        }
+        size = 0;
+        hand = 0;
+    }
+
+    public void forEach(EntryConsumer<? super V> consumer) {
+        long[] keys = this.keys;
+        Object[] values = this.values;
+        for (int i = 0; i < values.length; i++) {
+            @SuppressWarnings("unchecked")
+            V value = (V) values[i];
+            if (value != null) {
+                consumer.accept(keys[i], value);
+            }
+        }
+    }
+
+    /**
+     * Return the slot of a key, or -1. The probe is bounded by the table size, and a
+     * table that is being resized is not probed, so it never fails on a concurrent
+     * modification.
+     */
+    int indexOf(long key) {
+        long[] keys = this.keys;
+        Object[] values = this.values;
+        if (keys.length != values.length) {
+            return -1;
+        }
+        int length = keys.length;
+        int i = slot(key, length);
+        for (int n = 0; n < length && values[i] != null; n++) {
+            if (keys[i] == key) {
+                return i;
+            }
+            i = next(i, length);
+        }
+        return -1;
+    }
+
+    @SuppressWarnings("unchecked")
+    V valueAt(int i) {
+        Object[] values = this.values;
+        return i >= 0 && i < values.length ? (V) values[i] : null;
+    }
+
+    /**
+     * Set the reference bit of a slot. Concurrent callers race benignly, a lost bit only
+     * makes the entry a victim earlier.
+     */
+    void reference(int i) {
+        byte[] referenced = this.referenced;
+        if (i >= 0 && i < referenced.length) {
+            referenced[i] = 1;
+        }
+    }
+
+    /**
+     * Remove an entry by the CLOCK algorithm: the hand sweeps over the slots, clears the
+     * reference bits it passes, and removes the first entry that was not referenced since
+     * it was added or passed. The map must not be empty.
+     *
+     * @return the key of the removed entry
+     */
+    long evict() {
+        int length = keys.length;
+        while (true) {
+            int i = hand;
+            if (values[i] != null) {
+                if (referenced[i] == 0) {
+                    long key = keys[i];
+                    // the slot may be refilled by the shift, the hand examines it again
+                    removeAt(i);
+                    return key;
+                }
+                referenced[i] = 0;
+            }
+            hand = next(i, length);
+        }
+    }
+
+    private void removeAt(int i) {
+        int length = keys.length;
+        int j = i;
+        while (true) {
+            j = next(j, length);
+            if (values[j] == null) {
+                break;
+            }
+            int home = slot(keys[j], length);
+            // the entry at j may move to i unless its home lies cyclically in (i, j]
+            boolean stays = i <= j ? i < home && home <= j : i < home || home <= j;
+            if (!stays) {
+                keys[i] = keys[j];
+                values[i] = values[j];
+                if (referenced != null) {
+                    referenced[i] = referenced[j];
+                }
+                i = j;
+            }
+        }
+        values[i] = null;
+        if (referenced != null) {
+            referenced[i] = 0;
+        }
+        size--;
+    }
+
+    private void resize() {
+        long[] oldKeys = keys;
+        Object[] oldValues = values;
+        byte[] oldReferenced = referenced;
+        int capacity = (int) Math.min(MAX_CAPACITY, oldKeys.length * 2L);
+        if (capacity == oldKeys.length) {
+            throw new IllegalStateException("map is full");
+        }
+        long[] newKeys = new long[capacity];
+        Object[] newValues = new Object[capacity];
+        byte[] newReferenced = oldReferenced != null ? new byte[capacity] : null;
+        for (int j = 0; j < oldValues.length; j++) {
+            if (oldValues[j] != null) {
+                int i = slot(oldKeys[j], capacity);
+                while (newValues[i] != null) {
+                    i = next(i, capacity);
+                }
+                newKeys[i] = oldKeys[j];
+                newValues[i] = oldValues[j];
+                if (newReferenced != null) {
+                    newReferenced[i] = oldReferenced[j];
+                }
+            }
+        }
+        // publish the values first, a lookup skips a table with arrays of different lengths
+        values = newValues;
+        keys = newKeys;
+        referenced = newReferenced;
+        threshold = (int) (capacity * LOAD_FACTOR);
+    }
+
+    private static int tableSize(int expectedSize) {
+        long capacity = Math.max(2L, (long) Math.ceil(expectedSize / (double) LOAD_FACTOR) + 1L);
+        return (int) Math.min(MAX_CAPACITY, capacity);
+    }
+
+    /**
+     * Map the high bits of the scrambled key to a slot, by multiplication instead of a
+     * modulo.
+     */
+    private static int slot(long key, int length) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (((h >>> 32) * length) >>> 32);
+    }
+
+    private static int next(int i, int length) {
+        return i + 1 == length ? 0 : i + 1;
+    }
+
+    /**
+     * Consumes the entries of a map.
+     *
+     * @param <V> the value type
+     */
+    @FunctionalInterface
+    public interface EntryConsumer<V> {
+
+        void accept(long key, V value);
+    }
+}
@@ -0,0 +1,14 @@
+package org.xbib.concurrent.util;
+
+/**
+ * Listener for memory pressure, notified by a {@link MemoryPressureMonitor}.
+ */
+@FunctionalInterface
+public interface MemoryPressureListener {
+
+    /**
+     * Called on the notification thread of the JVM when the heap is still over the
+     * threshold after a garbage collection.
+     */
+    void onMemoryPressure();
+}
@@ -0,0 +1,119 @@
+package org.xbib.concurrent.util;
+
+import java.io.Closeable;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryNotificationInfo;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import javax.management.ListenerNotFoundException;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+
+/**
+ * Notifies listeners when the heap is still tight after a garbage collection.
+ *
+ * The monitor sets the collection usage threshold of every heap memory pool that supports
+ * one, which in practice is the old generation, to a fraction of the maximum size of the
+ * pool. The JVM checks the threshold after each collection and sends a notification if
+ * it is exceeded, so there is no polling. The thresholds are global to the JVM, so there
+ * should be only one monitor, shared by all caches. Closing the monitor restores the
+ * thresholds that were set before, unless they were changed in the meantime.
+ */
+public class MemoryPressureMonitor implements Closeable {
+
+    private final List<MemoryPoolMXBean> pools;
+
+    private final List<long[]> thresholds;
+
+    private final List<MemoryPressureListener> listeners;
+
+    private final NotificationEmitter emitter;
+
+    private final NotificationListener notificationListener;
+
+    /**
+     * Create a monitor.
+     *
+     * @param threshold the fraction of the maximum size of a pool that signals pressure,
+     *                  between 0 and 1
+     */
+    public MemoryPressureMonitor(double threshold) {
+        if (!(threshold > 0.0d && threshold < 1.0d)) {
+            throw new IllegalArgumentException("threshold must be between 0 and 1");
+        }
+        this.pools = new ArrayList<>();
+        this.thresholds = new ArrayList<>();
+        this.listeners = new CopyOnWriteArrayList<>();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            long max = pool.getUsage().getMax();
+            if (pool.getType() == MemoryType.HEAP && pool.isCollectionUsageThresholdSupported() && max > 0L) {
+                // the previous threshold and ours, to restore the previous one on close
+                long[] pair = { pool.getCollectionUsageThreshold(), (long) (max * threshold) };
+                pool.setCollectionUsageThreshold(pair[1]);
+                pools.add(pool);
+                thresholds.add(pair);
+            }
+        }
+        this.emitter = (NotificationEmitter) ManagementFactory.getMemoryMXBean();
+        this.notificationListener = this::handleNotification;
+        emitter.addNotificationListener(notificationListener, null, null);
+    }
+
+    public void addListener(MemoryPressureListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(MemoryPressureListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Return if the heap was over the threshold after the most recent garbage collection.
+     *
+     * @return true if there is memory pressure
+     */
+    public boolean isUnderPressure() {
+        for (MemoryPoolMXBean pool : pools) {
+            if (pool.isCollectionUsageThresholdExceeded()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void handleNotification(Notification notification, Object handback) {
+        if (MemoryNotificationInfo.MEMORY_COLLECTION_THRESHOLD_EXCEEDED.equals(notification.getType())) {
+            notifyListeners();
+        }
+    }
+
+    /**
+     * Stop monitoring and restore the previous thresholds of the pools, unless another
+     * component changed them after this monitor.
+     */
+    @Override
+    public void close() {
+        try {
+            emitter.removeNotificationListener(notificationListener);
+        } catch (ListenerNotFoundException e) {
+            // already removed
+        }
+        for (int i = 0; i < pools.size(); i++) {
+            MemoryPoolMXBean pool = pools.get(i);
+            long[] pair = thresholds.get(i);
+            if (pool.getCollectionUsageThreshold() == pair[1]) {
+                pool.setCollectionUsageThreshold(pair[0]);
+            }
+        }
+    }
+
+    void notifyListeners() {
+        for (MemoryPressureListener listener : listeners) {
+            listener.onMemoryPressure();
+        }
+    }
+}
@@ -0,0 +1,650 @@
+package org.xbib.concurrent.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+
+/**
+ * Cache of serialized values outside of the Java heap.
+ *
+ * The values are stored in slabs of a fixed size, either direct byte buffers or regions of
+ * a memory-mapped file, which are allocated up to a maximum of memory. Every slab is cut
+ * into chunks of one size class, the size classes grow by a factor of 1.25, so a value
+ * wastes at most a fifth of its chunk. Free chunks are kept in a free list per size class.
+ * When a size class has no free chunk and no more slabs can be allocated, the CLOCK
+ * algorithm evicts an entry of the same size class that was not read since the hand
+ * passed it last. A size class without any slab takes the last slab of the size class
+ * with the most slabs, whose entries in it are evicted, so the slabs follow the sizes of
+ * the values over time.
+ *
+ * On the heap, there is only an open-addressing index from keys to a chunk address in a
+ * {@code long}, and the keys and a reference byte of every chunk. The occupancy of the heap
+ * therefore does not grow with the size of the values.
+ *
+ * Reads take a shared lock, and pass a read-only view of the stored bytes to a reader
+ * without copying them. Writes take an exclusive lock.
+ *
+ * @param <K> the key type
+ */
+public class OffHeapCache<K> implements Closeable {
+
+    private static final int DEFAULT_SLAB_SIZE = 1 << 20;
+
+    private static final int MIN_CHUNK_SIZE = 64;
+
+    private static final double GROWTH_FACTOR = 1.25d;
+
+    private static final int HEADER_SIZE = Integer.BYTES;
+
+    private final ReentrantReadWriteLock lock;
+
+    private final long maxMemory;
+
+    private final int slabSize;
+
+    private final int maxSlabs;
+
+    private final FileChannel channel;
+
+    private final SizeClass[] sizeClasses;
+
+    private int slabCount;
+
+    private Object[] keys;
+
+    private long[] addresses;
+
+    private int size;
+
+    private boolean closed;
+
+    /**
+     * Create an off-heap cache in direct byte buffers with slabs of 1 MB.
+     *
+     * @param maxMemory the maximum memory of the slabs in bytes
+     */
+    public OffHeapCache(long maxMemory) {
+        this(maxMemory, DEFAULT_SLAB_SIZE);
+    }
+
+    /**
+     * Create an off-heap cache in direct byte buffers.
+     *
+     * @param maxMemory the maximum memory of the slabs in bytes
+     * @param slabSize the size of a slab, which is also the maximum size of a value
+     */
+    public OffHeapCache(long maxMemory, int slabSize) {
+        this(maxMemory, slabSize, null);
+    }
+
+    /**
+     * Create an off-heap cache in a memory-mapped file. The file is created if it does not
+     * exist, and grows by a slab at a time. Existing content is overwritten.
+     *
+     * @param path the path of the file
+     * @param maxMemory the maximum size of the file in bytes
+     * @param slabSize the size of a slab, which is also the maximum size of a value
+     * @throws IOException if the file can not be opened
+     */
+    public OffHeapCache(Path path, long maxMemory, int slabSize) throws IOException {
+        this(maxMemory, slabSize, FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE));
+    }
+
+    private OffHeapCache(long maxMemory, int slabSize, FileChannel channel) {
+        if (slabSize < MIN_CHUNK_SIZE) {
+            throw new IllegalArgumentException("slabSize must be >= " + MIN_CHUNK_SIZE);
+        }
+        if (maxMemory < slabSize) {
+            throw new IllegalArgumentException("maxMemory must be >= slabSize");
+        }
+        this.lock = new ReentrantReadWriteLock();
+        this.maxMemory = maxMemory;
+        this.slabSize = slabSize;
+        this.maxSlabs = (int) Math.min(Integer.MAX_VALUE, maxMemory / slabSize);
+        this.channel = channel;
+        this.sizeClasses = createSizeClasses(slabSize);
+        this.keys = new Object[16];
+        this.addresses = new long[16];
+    }
+
+    /**
+     * Store the remaining bytes of a buffer for a key, replacing a previous value. The
+     * position of the buffer is not changed.
+     *
+     * @param key the key
+     * @param value the value
+     * @return true if the value was stored, false if there was no room in its size class,
+     *         then the previous value is kept
+     * @throws IllegalArgumentException if the value is larger than a slab
+     */
+    public boolean put(K key, ByteBuffer value) {
+        Objects.requireNonNull(key);
+        int length = value.remaining();
+        SizeClass sizeClass = sizeClass(length + HEADER_SIZE);
+        lock.writeLock().lock();
+        try {
+            ensureOpen();
+            int i = find(key);
+            if (i >= 0 && sizeClassIndex(addresses[i]) == sizeClass.index) {
+                // overwrite the chunk of the previous value in place
+                write(sizeClass, chunk(addresses[i]), value, length);
+                return true;
+            }
+            int chunk = allocate(sizeClass);
+            if (chunk < 0) {
+                return false;
+            }
+            // the allocation may have evicted the previous value already
+            i = find(key);
+            if (i >= 0) {
+                release(addresses[i]);
+                delete(i);
+            }
+            write(sizeClass, chunk, value, length);
+            sizeClass.owners[chunk] = key;
+            insert(key, address(sizeClass.index, chunk));
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Store bytes for a key, replacing a previous value.
+     *
+     * @param key the key
+     * @param value the value
+     * @return true if the value was stored, false if there was no room in its size class,
+     *         then the previous value is kept
+     * @throws IllegalArgumentException if the value is larger than a slab
+     */
+    public boolean put(K key, byte[] value) {
+        return put(key, ByteBuffer.wrap(value));
+    }
+
+    /**
+     * Store a value for a key in its serialized form, replacing a previous value.
+     *
+     * @param key the key
+     * @param value the value
+     * @param serializer the serializer of the value
+     * @param <T> the value type
+     * @return true if the value was stored, false if there was no room in its size class,
+     *         then the previous value is kept
+     * @throws IllegalArgumentException if the serialized value is larger than a slab
+     */
+    public <T> boolean put(K key, T value, Serializer<? super T> serializer) {
+        return put(key, serializer.serialize(value));
+    }
+
+    /**
+     * Read the value of a key without copying it. The reader gets a read-only buffer over
+     * the stored bytes, which is valid only during the call and must not be kept.
+     *
+     * @param key the key
+     * @param reader the reader of the value
+     * @param <T> the result type
+     * @return the result of the reader, or null if the key is not present
+     */
+    public <T> T get(K key, Function<ByteBuffer, T> reader) {
+        lock.readLock().lock();
+        try {
+            ensureOpen();
+            int i = find(key);
+            if (i < 0) {
+                return null;
+            }
+            long address = addresses[i];
+            SizeClass sizeClass = sizeClasses[sizeClassIndex(address)];
+            int chunk = chunk(address);
+            // a benign race between readers, which all set the bit
+            sizeClass.referenced[chunk] = 1;
+            ByteBuffer slab = sizeClass.slab(chunk);
+            int offset = sizeClass.offset(chunk) + HEADER_SIZE;
+            int length = slab.getInt(offset - HEADER_SIZE);
+            ByteBuffer view = slab.asReadOnlyBuffer();
+            view.limit(offset + length);
+            view.position(offset);
+            return reader.apply(view.slice());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Deserialize the value of a key from the stored bytes.
+     *
+     * @param key the key
+     * @param serializer the serializer of the value
+     * @param <T> the value type
+     * @return the value, or null if the key is not present
+     */
+    public <T> T get(K key, Serializer<? extends T> serializer) {
+        return get(key, serializer::deserialize);
+    }
+
+    /**
+     * Return a copy of the value of a key.
+     *
+     * @param key the key
+     * @return the value, or null if the key is not present
+     */
+    public byte[] get(K key) {
+        return get(key, buffer -> {
+            byte[] bytes = new byte[buffer.remaining()];
+            buffer.get(bytes);
+            return bytes;
+        });
+    }
+
+    public boolean containsKey(K key) {
+        lock.readLock().lock();
+        try {
+            return !closed && find(key) >= 0;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Remove the value of a key and free its chunk.
+     *
+     * @param key the key
+     * @return true if the key was present
+     */
+    public boolean remove(K key) {
+        lock.writeLock().lock();
+        try {
+            ensureOpen();
+            int i = find(key);
+            if (i < 0) {
+                return false;
+            }
+            release(addresses[i]);
+            delete(i);
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Remove all values. The slabs are kept for reuse.
+     */
+    public void clear() {
+        lock.writeLock().lock();
+        try {
+            ensureOpen();
+            for (SizeClass sizeClass : sizeClasses) {
+                sizeClass.clear();
+            }
+            Arrays.fill(keys, null);
+            size = 0;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public long getMaxMemory() {
+        return maxMemory;
+    }
+
+    /**
+     * Return the memory of the allocated slabs.
+     *
+     * @return the allocated memory in bytes
+     */
+    public long getAllocatedMemory() {
+        lock.readLock().lock();
+        try {
+            return (long) slabCount * slabSize;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Release the slabs and close the mapped file, if any. The memory of the buffers is
+     * returned when they are garbage collected.
+     *
+     * @throws IOException if the mapped file can not be closed
+     */
+    @Override
+    public void close() throws IOException {
+        lock.writeLock().lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            for (SizeClass sizeClass : sizeClasses) {
+                sizeClass.slabs.clear();
+            }
+            keys = new Object[0];
+            addresses = new long[0];
+            size = 0;
+            if (channel != null) {
+                channel.close();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void write(SizeClass sizeClass, int chunk, ByteBuffer value, int length) {
+        ByteBuffer slab = sizeClass.slab(chunk);
+        int offset = sizeClass.offset(chunk);
+        slab.putInt(offset, length);
+        ByteBuffer target = slab.duplicate();
+        target.position(offset + HEADER_SIZE);
+        target.put(value.duplicate());
+    }
+
+    private void ensureOpen() {
+        if (closed) {
+            throw new IllegalStateException("cache is closed");
+        }
+    }
+
+    private SizeClass sizeClass(int size) {
+        for (SizeClass sizeClass : sizeClasses) {
+            if (sizeClass.chunkSize >= size) {
+                return sizeClass;
+            }
+        }
+        throw new IllegalArgumentException("value of " + (size - HEADER_SIZE) +
+                " bytes does not fit into a slab of " + slabSize + " bytes");
+    }
+
+    /**
+     * Allocate a chunk from the free list, from a new slab, from a slab of another size
+     * class if this one has none, or by evicting an entry of the same size class, in this
+     * order.
+     */
+    private int allocate(SizeClass sizeClass) {
+        if (sizeClass.freeCount == 0 && slabCount < maxSlabs) {
+            sizeClass.addSlab(newSlab());
+            slabCount++;
+        }
+        if (sizeClass.chunkCount() == 0) {
+            SizeClass donor = donor(sizeClass);
+            if (donor != null) {
+                sizeClass.addSlab(takeSlab(donor));
+            }
+        }
+        if (sizeClass.freeCount > 0) {
+            return sizeClass.free[--sizeClass.freeCount];
+        }
+        int chunks = sizeClass.chunkCount();
+        if (chunks == 0) {
+            return -1;
+        }
+        // all chunks are used, so the hand finds a victim within two rounds
+        while (true) {
+            int chunk = sizeClass.hand;
+            sizeClass.hand = (chunk + 1) % chunks;
+            if (sizeClass.referenced[chunk] != 0) {
+                sizeClass.referenced[chunk] = 0;
+                continue;
+            }
+            delete(find(sizeClass.owners[chunk]));
+            sizeClass.owners[chunk] = null;
+            return chunk;
+        }
+    }
+
+    /**
+     * Return the size class with the most slabs, other than the given one, or null.
+     */
+    private SizeClass donor(SizeClass sizeClass) {
+        SizeClass donor = null;
+        for (SizeClass candidate : sizeClasses) {
+            if (candidate != sizeClass && !candidate.slabs.isEmpty() &&
+                    (donor == null || candidate.slabs.size() > donor.slabs.size())) {
+                donor = candidate;
+            }
+        }
+        return donor;
+    }
+
+    /**
+     * Remove the last slab of a size class, and evict the entries in it.
+     */
+    private ByteBuffer takeSlab(SizeClass sizeClass) {
+        int count = sizeClass.chunkCount();
+        for (int chunk = count - sizeClass.chunksPerSlab; chunk < count; chunk++) {
+            Object owner = sizeClass.owners[chunk];
+            if (owner != null) {
+                delete(find(owner));
+            }
+        }
+        return sizeClass.removeLastSlab();
+    }
+
+    private void release(long address) {
+        SizeClass sizeClass = sizeClasses[sizeClassIndex(address)];
+        int chunk = chunk(address);
+        sizeClass.owners[chunk] = null;
+        sizeClass.referenced[chunk] = 0;
+        sizeClass.free[sizeClass.freeCount++] = chunk;
+    }
+
+    private ByteBuffer newSlab() {
+        if (channel == null) {
+            return ByteBuffer.allocateDirect(slabSize);
+        }
+        try {
+            return channel.map(FileChannel.MapMode.READ_WRITE, (long) slabCount * slabSize, slabSize);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private int find(Object key) {
+        int mask = keys.length - 1;
+        int i = hash(key) & mask;
+        Object k;
+        while ((k = keys[i]) != null) {
+            if (k.equals(key)) {
+                return i;
+            }
+            i = (i + 1) & mask;
+        }
+        return -1;
+    }
+
+    private void insert(Object key, long address) {
+        if (size + 1 > keys.length * 3 / 4) {
+            resize();
+        }
+        int mask = keys.length - 1;
+        int i = hash(key) & mask;
+        while (keys[i] != null) {
+            i = (i + 1) & mask;
+        }
+        keys[i] = key;
+        addresses[i] = address;
+        size++;
+    }
+
+    /**
+     * Delete a slot by shifting the following slots of the probe sequence back, so that
+     * lookups need no tombstones.
+     */
+    private void delete(int i) {
+        int mask = keys.length - 1;
+        int j = i;
+        while (true) {
+            j = (j + 1) & mask;
+            Object k = keys[j];
+            if (k == null) {
+                break;
+            }
+            int home = hash(k) & mask;
+            // the slot at j may move to i unless its home lies cyclically in (i, j]
+            boolean stays = i <= j ? i < home && home <= j : i < home || home <= j;
+            if (!stays) {
+                keys[i] = k;
+                addresses[i] = addresses[j];
+                i = j;
+            }
+        }
+        keys[i] = null;
+        addresses[i] = 0L;
+        size--;
+    }
+
+    private void resize() {
+        Object[] oldKeys = keys;
+        long[] oldAddresses = addresses;
+        keys = new Object[oldKeys.length * 2];
+        addresses = new long[oldKeys.length * 2];
+        size = 0;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != null) {
+                insert(oldKeys[i], oldAddresses[i]);
+            }
+        }
+    }
+
+    private static int hash(Object key) {
+        int h = key.hashCode() * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private static long address(int sizeClassIndex, int chunk) {
+        return ((long) sizeClassIndex << 32) | (chunk & 0xffffffffL);
+    }
+
+    private static int sizeClassIndex(long address) {
+        return (int) (address >>> 32);
+    }
+
+    private static int chunk(long address) {
+        return (int) address;
+    }
+
+    private static SizeClass[] createSizeClasses(int slabSize) {
+        List<SizeClass> list = new ArrayList<>();
+        int chunkSize = MIN_CHUNK_SIZE;
+        while (chunkSize < slabSize) {
+            list.add(new SizeClass(list.size(), chunkSize, slabSize / chunkSize));
+            chunkSize = (int) Math.min(slabSize, ((long) (chunkSize * GROWTH_FACTOR) + 7L) & ~7L);
+        }
+        list.add(new SizeClass(list.size(), slabSize, 1));
+        return list.toArray(new SizeClass[0]);
+    }
+
+    /**
+     * The slabs and chunks of one chunk size, guarded by the write lock, except for the
+     * reference bytes, which are set by readers.
+     */
+    private static final class SizeClass {
+
+        private final int index;
+
+        private final int chunkSize;
+
+        private final int chunksPerSlab;
+
+        private final List<ByteBuffer> slabs;
+
+        private Object[] owners;
+
+        private byte[] referenced;
+
+        private int[] free;
+
+        private int freeCount;
+
+        private int hand;
+
+        SizeClass(int index, int chunkSize, int chunksPerSlab) {
+            this.index = index;
+            this.chunkSize = chunkSize;
+            this.chunksPerSlab = chunksPerSlab;
+            this.slabs = new ArrayList<>();
+            this.owners = new Object[0];
+            this.referenced = new byte[0];
+            this.free = new int[0];
+        }
+
+        int chunkCount() {
+            return slabs.size() * chunksPerSlab;
+        }
+
+        ByteBuffer slab(int chunk) {
+            return slabs.get(chunk / chunksPerSlab);
+        }
+
+        int offset(int chunk) {
+            return (chunk % chunksPerSlab) * chunkSize;
+        }
+
+        void addSlab(ByteBuffer slab) {
+            int first = chunkCount();
+            slabs.add(slab);
+            int count = chunkCount();
+            owners = Arrays.copyOf(owners, count);
+            referenced = Arrays.copyOf(referenced, count);
+            free = Arrays.copyOf(free, count);
+            // the lowest chunk is on top of the free list
+            for (int chunk = count - 1; chunk >= first; chunk--) {
+                free[freeCount++] = chunk;
+            }
+        }
+
+        /**
+         * Remove the last slab, and its chunks from the free list. The entries in the slab
+         * must be deleted before.
+         */
+        ByteBuffer removeLastSlab() {
+            ByteBuffer slab = slabs.remove(slabs.size() - 1);
+            int count = chunkCount();
+            owners = Arrays.copyOf(owners, count);
+            referenced = Arrays.copyOf(referenced, count);
+            int n = 0;
+            for (int i = 0; i < freeCount; i++) {
+                if (free[i] < count) {
+                    free[n++] = free[i];
+                }
+            }
+            free = Arrays.copyOf(free, count);
+            freeCount = n;
+            if (hand >= count) {
+                hand = 0;
+            }
+            return slab;
+        }
+
+        void clear() {
+            Arrays.fill(owners, null);
+            Arrays.fill(referenced, (byte) 0);
+            freeCount = 0;
+            for (int chunk = chunkCount() - 1; chunk >= 0; chunk--) {
+                free[freeCount++] = chunk;
+            }
+            hand = 0;
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package org.xbib.concurrent.util;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * A worker pool that executes requests in parallel but commits them strictly in
+ * the order of submission.
+ *
+ * Each request gets a sequence number at {@link #execute(Request)}. When a worker is done,
+ * the request is placed in a {@link ReorderBuffer}, which releases it to the commit listener
+ * as soon as all earlier requests are done. Failed requests are committed with their exception,
+ * so a failure does not block the line. If the buffer is full because the head of the line is
+ * slow, producers wait in {@link #execute(Request)} for at most the pool timeout and the
+ * request is rejected after that.
+ *
+ * @param <R> the request type
+ * @param <W> the worker type
+ */
+public abstract class OrderedWorkerPool<R extends SequencedRequest, W extends Worker<R>>
+        extends AbstractWorkerPool<R, W> {
+
+    private final ReorderBuffer<R> reorderBuffer;
+
+    public OrderedWorkerPool(String name,
+                             int workerCount,
+                             WorkerPoolListener<R, W> listener,
+                             int bufferSize,
+                             CommitListener<R> commitListener) {
+        this(name, workerCount, listener, DEFAULT_TIMEOUT_IN_SECONDS, bufferSize, commitListener);
+    }
+
+    public OrderedWorkerPool(String name,
+                             int workerCount,
+                             WorkerPoolListener<R, W> listener,
+                             int timeoutInSeconds,
+                             int bufferSize,
+                             CommitListener<R> commitListener) {
+        super(name, workerCount, listener, timeoutInSeconds);
+        this.reorderBuffer = new ReorderBuffer<>(bufferSize, commitListener);
+    }
+
+    @Override
+    protected void beforeExecute(R request) throws IOException, InterruptedException {
+        try {
+            request.setSequence(reorderBuffer.acquire(getTimeoutInSeconds(), TimeUnit.SECONDS));
+        } catch (TimeoutException e) {
+            throw new IOException(e);
+        }
+    }
+
+    @Override
+    public void afterExecute(R request, W worker, Throwable throwable) {
+        reorderBuffer.complete(request.getSequence(), request, throwable);
+    }
+
+    /**
+     * Return the number of committed requests, which is the sequence number of the
+     * oldest request not yet committed.
+     *
+     * @return the number of committed requests
+     */
+    public long getCommitted() {
+        return reorderBuffer.getCommitted();
+    }
+}
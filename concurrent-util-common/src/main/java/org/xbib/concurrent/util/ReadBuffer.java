@@ -0,0 +1,103 @@
+package org.xbib.concurrent.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+/**
+ * A lossy, striped buffer for recording reads without locking.
+ *
+ * Each stripe is a small ring buffer. Readers claim a slot by a CAS on the write counter of
+ * the stripe selected by their thread. If the stripe is full or the CAS is contended, the
+ * read is dropped, which is harmless for a recency policy that only needs a sample of the
+ * reads. The buffer is drained in batches by a single thread holding the maintenance lock.
+ *
+ * @param <E> the element type
+ */
+final class ReadBuffer<E> {
+
+    static final int SUCCESS = 0;
+
+    static final int FAILED = 1;
+
+    static final int FULL = 2;
+
+    private static final int STRIPE_SIZE = 16;
+
+    private static final int STRIPE_MASK = STRIPE_SIZE - 1;
+
+    private final Stripe<E>[] stripes;
+
+    private final int mask;
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    ReadBuffer() {
+        int n = Runtime.getRuntime().availableProcessors();
+        int size = n <= 1 ? 1 : Integer.highestOneBit(n - 1) << 1;
+        this.stripes = new Stripe[size];
+        for (int i = 0; i < size; i++) {
+            stripes[i] = new Stripe<>();
+        }
+        this.mask = size - 1;
+    }
+
+    /**
+     * Record an element.
+     *
+     * @param e the element
+     * @return {@link #SUCCESS} if recorded, {@link #FAILED} if dropped by contention,
+     * or {@link #FULL} if dropped because the stripe is full and should be drained
+     */
+    int offer(E e) {
+        Stripe<E> stripe = stripes[stripeIndex()];
+        long tail = stripe.writeCounter.get();
+        long size = tail - stripe.readCounter;
+        if (size >= STRIPE_SIZE) {
+            return FULL;
+        }
+        if (stripe.writeCounter.compareAndSet(tail, tail + 1)) {
+            stripe.buffer.lazySet((int) (tail & STRIPE_MASK), e);
+            return SUCCESS;
+        }
+        return FAILED;
+    }
+
+    /**
+     * Drain all recorded elements. Must be called by one thread at a time.
+     *
+     * @param consumer the consumer of the elements
+     */
+    void drainTo(Consumer<E> consumer) {
+        for (Stripe<E> stripe : stripes) {
+            long head = stripe.readCounter;
+            long tail = stripe.writeCounter.get();
+            while (head < tail) {
+                int index = (int) (head & STRIPE_MASK);
+                E e = stripe.buffer.get(index);
+                if (e == null) {
+                    // the slot is claimed but not yet published
+                    break;
+                }
+                stripe.buffer.lazySet(index, null);
+                consumer.accept(e);
+                head++;
+            }
+            stripe.readCounter = head;
+        }
+    }
+
+    private int stripeIndex() {
+        long id = Thread.currentThread().getId();
+        int h = (int) (id ^ (id >>> 32)) * 0x9e3779b9;
+        return (h >>> 16) & mask;
+    }
+
+    private static final class Stripe<E> {
+
+        final AtomicLong writeCounter = new AtomicLong();
+
+        final AtomicReferenceArray<E> buffer = new AtomicReferenceArray<>(STRIPE_SIZE);
+
+        volatile long readCounter;
+    }
+}
@@ -0,0 +1,82 @@
+package org.xbib.concurrent.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Queues removal notifications and delivers them in batches on an executor, so that a
+ * slow listener never runs on the thread that removed the entries. At most one delivery
+ * task is scheduled at a time, it takes all notifications that were queued until it runs.
+ *
+ * @param <K> the key type
+ * @param <V> the value type
+ */
+final class RemovalBuffer<K, V> implements Runnable {
+
+    private static final int BATCH_MAX = 1024;
+
+    private final RemovalListener<K, V> listener;
+
+    private final Executor executor;
+
+    private final Queue<RemovalNotification<K, V>> queue;
+
+    private final AtomicBoolean scheduled;
+
+    RemovalBuffer(RemovalListener<K, V> listener, Executor executor) {
+        this.listener = listener;
+        this.executor = executor;
+        this.queue = new ConcurrentLinkedQueue<>();
+        this.scheduled = new AtomicBoolean();
+    }
+
+    void add(K key, V value, RemovalCause cause) {
+        queue.add(new RemovalNotification<>(key, value, cause));
+        schedule();
+    }
+
+    @Override
+    public void run() {
+        try {
+            List<RemovalNotification<K, V>> batch;
+            while (!(batch = poll()).isEmpty()) {
+                try {
+                    listener.onRemoval(batch);
+                } catch (RuntimeException e) {
+                    // a failing listener must not stop the delivery of the next batches
+                    Thread thread = Thread.currentThread();
+                    thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+                }
+            }
+        } finally {
+            scheduled.set(false);
+        }
+        // a notification may have been queued after the last poll
+        schedule();
+    }
+
+    private void schedule() {
+        if (!queue.isEmpty() && scheduled.compareAndSet(false, true)) {
+            try {
+                executor.execute(this);
+            } catch (RejectedExecutionException e) {
+                // keep the notifications for the next attempt
+                scheduled.set(false);
+            }
+        }
+    }
+
+    private List<RemovalNotification<K, V>> poll() {
+        List<RemovalNotification<K, V>> batch = new ArrayList<>();
+        RemovalNotification<K, V> notification;
+        while (batch.size() < BATCH_MAX && (notification = queue.poll()) != null) {
+            batch.add(notification);
+        }
+        return batch;
+    }
+}
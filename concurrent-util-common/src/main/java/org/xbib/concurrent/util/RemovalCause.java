@@ -0,0 +1,42 @@
+package org.xbib.concurrent.util;
+
+/**
+ * The reason why an entry was removed from a cache.
+ */
+public enum RemovalCause {
+
+    /**
+     * The entry was removed by the user.
+     */
+    EXPLICIT,
+
+    /**
+     * The value of the entry was replaced by the user.
+     */
+    REPLACED,
+
+    /**
+     * The value was collected by the garbage collector, because it was referenced softly
+     * or weakly.
+     */
+    COLLECTED,
+
+    /**
+     * The entry expired.
+     */
+    EXPIRED,
+
+    /**
+     * The entry was evicted because the cache was over its bound.
+     */
+    SIZE;
+
+    /**
+     * Return if the entry was removed by the cache, and not by the user.
+     *
+     * @return true if the entry was evicted
+     */
+    public boolean wasEvicted() {
+        return this != EXPLICIT && this != REPLACED;
+    }
+}
@@ -0,0 +1,21 @@
+package org.xbib.concurrent.util;
+
+import java.util.List;
+
+/**
+ * Receives the entries that were removed from a cache, in batches.
+ *
+ * @param <K> the key type
+ * @param <V> the value type
+ */
+@FunctionalInterface
+public interface RemovalListener<K, V> {
+
+    /**
+     * Called with removed entries, in the order of their removal. The calls are never
+     * concurrent.
+     *
+     * @param notifications the removed entries
+     */
+    void onRemoval(List<RemovalNotification<K, V>> notifications);
+}
@@ -0,0 +1,40 @@
+package org.xbib.concurrent.util;
+
+import java.util.AbstractMap;
+
+/**
+ * A removed entry of a cache and the cause of its removal.
+ *
+ * @param <K> the key type
+ * @param <V> the value type
+ */
+@SuppressWarnings("serial")
+public final class RemovalNotification<K, V> extends AbstractMap.SimpleImmutableEntry<K, V> {
+
+    private final RemovalCause cause;
+
+    /**
+     * Create a notification.
+     *
+     * @param key the key
+     * @param value the removed value, or null if it was collected
+     * @param cause the cause
+     */
+    public RemovalNotification(K key, V value, RemovalCause cause) {
+        super(key, value);
+        this.cause = cause;
+    }
+
+    public RemovalCause getCause() {
+        return cause;
+    }
+
+    public boolean wasEvicted() {
+        return cause.wasEvicted();
+    }
+
+    @Override
+    public String toString() {
+        return super.toString() + " (" + cause + ")";
+    }
+}
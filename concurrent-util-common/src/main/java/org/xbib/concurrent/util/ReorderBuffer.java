@@ -0,0 +1,174 @@
+package org.xbib.concurrent.util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A bounded buffer that accepts completions in any order and releases them to a
+ * {@link CommitListener} in the order of their sequence numbers.
+ *
+ * Sequence numbers are handed out by {@link #acquire(long, TimeUnit)}, which blocks while
+ * the buffer is full, that is, while the oldest uncommitted sequence number is as far behind
+ * as the capacity of the buffer. A slow head-of-line request therefore throttles producers
+ * instead of letting the buffer grow.
+ *
+ * The commit listener is called outside of the lock, by one thread at a time, from the
+ * thread that completed the head of the line.
+ *
+ * @param <R> the request type
+ */
+public class ReorderBuffer<R> {
+
+    private final int capacity;
+
+    private final Object[] requests;
+
+    private final Throwable[] throwables;
+
+    private final boolean[] completed;
+
+    private final CommitListener<R> commitListener;
+
+    private final ReentrantLock lock;
+
+    private final Condition notFull;
+
+    private long next;
+
+    private long head;
+
+    private boolean committing;
+
+    public ReorderBuffer(int capacity, CommitListener<R> commitListener) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be >= 1");
+        }
+        this.capacity = capacity;
+        this.requests = new Object[capacity];
+        this.throwables = new Throwable[capacity];
+        this.completed = new boolean[capacity];
+        this.commitListener = commitListener;
+        this.lock = new ReentrantLock();
+        this.notFull = lock.newCondition();
+    }
+
+    /**
+     * Acquire the next sequence number, waiting for space in the buffer if necessary.
+     *
+     * @param timeout the maximum time to wait
+     * @param unit the time unit
+     * @return the sequence number
+     * @throws InterruptedException if interrupted while waiting
+     * @throws TimeoutException if no space became available in time
+     */
+    public long acquire(long timeout, TimeUnit unit) throws InterruptedException, TimeoutException {
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while (next - head >= capacity) {
+                if (nanos <= 0L) {
+                    throw new TimeoutException("reorder buffer full, waiting for sequence " + head);
+                }
+                nanos = notFull.awaitNanos(nanos);
+            }
+            return next++;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Complete a sequence number. If it is the head of the line, it is committed together
+     * with all following completions that are already present.
+     *
+     * @param sequence the sequence number from {@link #acquire(long, TimeUnit)}
+     * @param request the request
+     * @param throwable the exception if the request failed, or null
+     */
+    @SuppressWarnings("unchecked")
+    public void complete(long sequence, R request, Throwable throwable) {
+        RuntimeException commitException = null;
+        lock.lock();
+        try {
+            if (sequence < head || sequence >= next) {
+                throw new IllegalStateException("sequence " + sequence + " is not pending");
+            }
+            int i = index(sequence);
+            if (completed[i]) {
+                throw new IllegalStateException("sequence " + sequence + " already completed");
+            }
+            requests[i] = request;
+            throwables[i] = throwable;
+            completed[i] = true;
+            if (committing || sequence != head) {
+                return;
+            }
+            committing = true;
+            try {
+                while (completed[i = index(head)]) {
+                    R r = (R) requests[i];
+                    Throwable t = throwables[i];
+                    long s = head;
+                    requests[i] = null;
+                    throwables[i] = null;
+                    completed[i] = false;
+                    head++;
+                    notFull.signalAll();
+                    lock.unlock();
+                    try {
+                        commitListener.commit(r, s, t);
+                    } catch (RuntimeException e) {
+                        // keep the line moving, report the first failure at the end
+                        if (commitException == null) {
+                            commitException = e;
+                        }
+                    } finally {
+                        lock.lock();
+                    }
+                }
+            } finally {
+                committing = false;
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (commitException != null) {
+            throw commitException;
+        }
+    }
+
+    /**
+     * Return the number of committed sequence numbers, which is the lowest uncommitted
+     * sequence number.
+     *
+     * @return the number of committed sequence numbers
+     */
+    public long getCommitted() {
+        lock.lock();
+        try {
+            return head;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Return the number of sequence numbers that are acquired but not committed.
+     *
+     * @return the number of pending sequence numbers
+     */
+    public int getPending() {
+        lock.lock();
+        try {
+            return (int) (next - head);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private int index(long sequence) {
+        return (int) (sequence % capacity);
+    }
+}
@@ -0,0 +1,26 @@
+package org.xbib.concurrent.util;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight recorder event: a worker took a request from the queue, the duration is the time the worker was waiting.
+ */
+@Name("org.xbib.concurrent.util.RequestDequeued")
+@Label("Request Dequeued")
+@Category({"xbib", "Worker Pool"})
+@Description("A worker took a request from the queue, the duration is the time the worker was waiting.")
+final class RequestDequeuedEvent extends Event {
+
+    @Label("Pool")
+    String pool;
+
+    @Label("Worker")
+    String worker;
+
+    @Label("Request Class")
+    Class<?> requestClass;
+}
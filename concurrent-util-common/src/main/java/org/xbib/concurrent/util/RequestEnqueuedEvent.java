@@ -0,0 +1,23 @@
+package org.xbib.concurrent.util;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight recorder event: a request was handed off to the worker queue, the duration is the time the producer was blocked.
+ */
+@Name("org.xbib.concurrent.util.RequestEnqueued")
+@Label("Request Enqueued")
+@Category({"xbib", "Worker Pool"})
+@Description("A request was handed off to the worker queue, the duration is the time the producer was blocked.")
+final class RequestEnqueuedEvent extends Event {
+
+    @Label("Pool")
+    String pool;
+
+    @Label("Request Class")
+    Class<?> requestClass;
+}
@@ -0,0 +1,29 @@
+package org.xbib.concurrent.util;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight recorder event: a worker executed a request, the duration is the execution time.
+ */
+@Name("org.xbib.concurrent.util.RequestExecuted")
+@Label("Request Executed")
+@Category({"xbib", "Worker Pool"})
+@Description("A worker executed a request, the duration is the execution time.")
+final class RequestExecutedEvent extends Event {
+
+    @Label("Pool")
+    String pool;
+
+    @Label("Worker")
+    String worker;
+
+    @Label("Request Class")
+    Class<?> requestClass;
+
+    @Label("Succeeded")
+    boolean succeeded;
+}
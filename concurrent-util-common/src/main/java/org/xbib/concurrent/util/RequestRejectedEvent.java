@@ -0,0 +1,26 @@
+package org.xbib.concurrent.util;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight recorder event: a request was rejected by the worker pool.
+ */
+@Name("org.xbib.concurrent.util.RequestRejected")
+@Label("Request Rejected")
+@Category({"xbib", "Worker Pool"})
+@Description("A request was rejected by the worker pool.")
+final class RequestRejectedEvent extends Event {
+
+    @Label("Pool")
+    String pool;
+
+    @Label("Request Class")
+    Class<?> requestClass;
+
+    @Label("Reason")
+    String reason;
+}
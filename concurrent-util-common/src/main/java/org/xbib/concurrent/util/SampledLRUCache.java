@@ -0,0 +1,54 @@
+package org.xbib.concurrent.util;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Concurrent cache with approximate LRU eviction by sampling.
+ *
+ * Like {@link LRUCache}, but a read only stores a coarse timestamp in the entry with a plain
+ * write, it never records the entry in a buffer or takes the maintenance lock. To evict,
+ * the cache samples a few random entries and evicts the one that was read longest ago,
+ * like Redis does. This gives up a little of the hit rate of exact LRU for reads that
+ * never touch a shared structure, which pays off for very hot, read-mostly caches. With
+ * expiration after access, reads are still buffered to reschedule the expiration.
+ *
+ * @param <K> the key type
+ * @param <V> the value type
+ */
+public class SampledLRUCache<K, V> extends LRUCache<K, V> {
+
+    private final SampledPolicy<K, V> policy;
+
+    public SampledLRUCache(int maxSize) {
+        this(maxSize, new ConcurrentHashMap<>(), new SampledPolicy<>(maxSize));
+    }
+
+    public SampledLRUCache(int initialCapacity, int maxSize) {
+        this(maxSize, new ConcurrentHashMap<>(initialCapacity), new SampledPolicy<>(maxSize));
+    }
+
+    public SampledLRUCache(Map<? extends K, ? extends V> m, int maxSize) {
+        this(Math.max(m.size(), 16), maxSize);
+        putAll(m);
+    }
+
+    private SampledLRUCache(int maxSize, ConcurrentHashMap<K, Node<K, V>> data, SampledPolicy<K, V> policy) {
+        super(maxSize, data, policy);
+        this.policy = policy;
+    }
+
+    /**
+     * Set the number of entries that are sampled for each eviction. More samples come
+     * closer to exact LRU, at the cost of slower evictions. The default is 5.
+     *
+     * @param sampleSize the number of samples
+     */
+    public void setSampleSize(int sampleSize) {
+        policy.setSampleSize(sampleSize);
+    }
+
+    public int getSampleSize() {
+        return policy.getSampleSize();
+    }
+}
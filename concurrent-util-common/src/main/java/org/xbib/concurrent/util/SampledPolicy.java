@@ -0,0 +1,173 @@
+package org.xbib.concurrent.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Consumer;
+
+/**
+ * Approximate least recently used eviction by sampling.
+ *
+ * The policy keeps no order at all. A read stores a coarse timestamp in the node with a
+ * plain write, see {@link #recordRead}, so reads never reach the maintenance. The nodes
+ * are kept in an array, where a node is added at the end and removed by moving the last
+ * node into its slot. To evict, the policy samples a few random nodes and evicts the one
+ * that was read longest ago. With five samples, the victim is among the oldest third of
+ * the entries with a probability of about 87 percent.
+ *
+ * @param <K> the key type
+ * @param <V> the value type
+ */
+final class SampledPolicy<K, V> implements EvictionPolicy<K, V> {
+
+    private static final int SAMPLED = 1;
+
+    private static final int DEFAULT_SAMPLE_SIZE = 5;
+
+    private LRUCache.Node<K, V>[] nodes;
+
+    private int size;
+
+    private long weight;
+
+    private long maximum;
+
+    private volatile int sampleSize;
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    SampledPolicy(long maximum) {
+        this.nodes = new LRUCache.Node[16];
+        this.maximum = maximum;
+        this.sampleSize = DEFAULT_SAMPLE_SIZE;
+    }
+
+    void setSampleSize(int sampleSize) {
+        if (sampleSize < 1) {
+            throw new IllegalArgumentException("sampleSize must be >= 1");
+        }
+        this.sampleSize = sampleSize;
+    }
+
+    int getSampleSize() {
+        return sampleSize;
+    }
+
+    @Override
+    public void setMaximum(long maximum) {
+        this.maximum = maximum;
+    }
+
+    @Override
+    public boolean recordRead(LRUCache.Node<K, V> node) {
+        node.readTime = clock();
+        return true;
+    }
+
+    @Override
+    public void onAdd(LRUCache.Node<K, V> node) {
+        if (size == nodes.length) {
+            nodes = Arrays.copyOf(nodes, size * 2);
+        }
+        node.queueType = SAMPLED;
+        node.policyIndex = size;
+        node.readTime = clock();
+        nodes[size++] = node;
+        weight += node.policyWeight;
+    }
+
+    @Override
+    public void onAccess(LRUCache.Node<K, V> node) {
+        node.readTime = clock();
+    }
+
+    @Override
+    public void updateWeight(LRUCache.Node<K, V> node, int weight) {
+        this.weight += weight - node.policyWeight;
+        node.policyWeight = weight;
+    }
+
+    @Override
+    public void onRemove(LRUCache.Node<K, V> node) {
+        int i = node.policyIndex;
+        LRUCache.Node<K, V> last = nodes[--size];
+        nodes[i] = last;
+        last.policyIndex = i;
+        nodes[size] = null;
+        node.queueType = LRUCache.Node.UNLINKED;
+        weight -= node.policyWeight;
+    }
+
+    @Override
+    public void evict(Consumer<LRUCache.Node<K, V>> evictor) {
+        while (weight > maximum) {
+            LRUCache.Node<K, V> node = sample();
+            onRemove(node);
+            evictor.accept(node);
+        }
+    }
+
+    @Override
+    public List<LRUCache.Node<K, V>> hottest(int limit) {
+        // sort the indexes by the age of the nodes, read once, in the high bits
+        int now = clock();
+        long[] ages = new long[size];
+        for (int i = 0; i < size; i++) {
+            ages[i] = (long) (now - nodes[i].readTime) << 32 | i;
+        }
+        Arrays.sort(ages);
+        List<LRUCache.Node<K, V>> list = new ArrayList<>(Math.min(limit, size));
+        for (int i = 0; i < size && list.size() < limit; i++) {
+            list.add(nodes[(int) ages[i]]);
+        }
+        return list;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public long weightedSize() {
+        return weight;
+    }
+
+    /**
+     * Return the node that was read longest ago among the samples.
+     */
+    private LRUCache.Node<K, V> sample() {
+        int samples = sampleSize;
+        if (size <= samples) {
+            return oldest();
+        }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        LRUCache.Node<K, V> victim = nodes[random.nextInt(size)];
+        for (int n = 1; n < samples; n++) {
+            LRUCache.Node<K, V> node = nodes[random.nextInt(size)];
+            if (node.readTime - victim.readTime < 0) {
+                victim = node;
+            }
+        }
+        return victim;
+    }
+
+    private LRUCache.Node<K, V> oldest() {
+        LRUCache.Node<K, V> victim = nodes[0];
+        for (int i = 1; i < size; i++) {
+            if (nodes[i].readTime - victim.readTime < 0) {
+                victim = nodes[i];
+            }
+        }
+        return victim;
+    }
+
+    /**
+     * Return a coarse timestamp of about a millisecond, which wraps after about 50 days.
+     * Timestamps are compared by their difference, so the order is right as long as the
+     * entries were read within 25 days of each other.
+     */
+    private static int clock() {
+        return (int) (System.nanoTime() >>> 20);
+    }
+}
@@ -0,0 +1,11 @@
+package org.xbib.concurrent.util;
+
+/**
+ * A request that carries the sequence number assigned by the worker pool at submission.
+ */
+public interface SequencedRequest extends Request {
+
+    void setSequence(long sequence);
+
+    long getSequence();
+}
@@ -0,0 +1,43 @@
+package org.xbib.concurrent.util;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Converts objects to bytes and back, for storing values in an {@link OffHeapCache}
+ * and for the keys and values of {@link LRUCache#writeSnapshot snapshot files}.
+ *
+ * @param <T> the object type
+ */
+public interface Serializer<T> {
+
+    /**
+     * Serialize an object.
+     *
+     * @param value the object
+     * @return a buffer with the bytes between position and limit
+     */
+    ByteBuffer serialize(T value);
+
+    /**
+     * Deserialize an object from the remaining bytes of a buffer.
+     *
+     * @param buffer the buffer, which is only valid during the call
+     * @return the object
+     */
+    T deserialize(ByteBuffer buffer);
+
+    static Serializer<String> utf8() {
+        return new Serializer<>() {
+            @Override
+            public ByteBuffer serialize(String value) {
+                return StandardCharsets.UTF_8.encode(value);
+            }
+
+            @Override
+            public String deserialize(ByteBuffer buffer) {
+                return StandardCharsets.UTF_8.decode(buffer).toString();
+            }
+        };
+    }
+}
@@ -0,0 +1,465 @@
+package org.xbib.concurrent.util;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+
+/**
+ * Concurrent cache of independent segments.
+ *
+ * Every key belongs to one segment by its hash, and every segment is a cache with its own
+ * maintenance lock, buffers, and eviction order, and a share of the maximum size. Writers
+ * of different segments never meet, so the maintenance scales with the number of segments
+ * instead of being serialized on one lock. The price is that the eviction order is only
+ * per segment, and a segment evicts even if others have room.
+ *
+ * With statistics enabled, {@link #rebalance()} moves capacity to the segments that had
+ * the larger share of the hits since the last rebalance.
+ *
+ * @param <K> the key type
+ * @param <V> the value type
+ */
+public class ShardedCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V> {
+
+    private final LRUCache<K, V>[] segments;
+
+    private final int mask;
+
+    private volatile int maxSize;
+
+    private CacheStats[] rebalanced;
+
+    private Set<Entry<K, V>> entrySet;
+
+    public ShardedCache(int maxSize) {
+        this(Runtime.getRuntime().availableProcessors(), maxSize);
+    }
+
+    public ShardedCache(int segmentCount, int maxSize) {
+        this(segmentCount, maxSize, LRUCache::new);
+    }
+
+    /**
+     * Create a sharded cache.
+     *
+     * @param segmentCount the number of segments, rounded up to a power of two
+     * @param maxSize the maximum number of entries of all segments
+     * @param segmentFactory creates a segment for a maximum size, for example
+     *                       {@code TinyLFUCache::new}
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public ShardedCache(int segmentCount, int maxSize, IntFunction<? extends LRUCache<K, V>> segmentFactory) {
+        if (segmentCount < 1) {
+            throw new IllegalArgumentException("segmentCount must be >= 1");
+        }
+        int n = 1;
+        while (n < segmentCount) {
+            n <<= 1;
+        }
+        if (maxSize < n) {
+            throw new IllegalArgumentException("maxSize must be >= number of segments");
+        }
+        this.segments = new LRUCache[n];
+        this.mask = n - 1;
+        this.maxSize = maxSize;
+        for (int i = 0; i < n; i++) {
+            segments[i] = segmentFactory.apply(share(maxSize, n, i));
+        }
+        this.rebalanced = new CacheStats[n];
+    }
+
+    public int getSegmentCount() {
+        return segments.length;
+    }
+
+    /**
+     * Set the maximum number of entries, and split it evenly between the segments.
+     *
+     * @param maxSize the maximum number of entries
+     */
+    public synchronized void setMaxSize(int maxSize) {
+        if (maxSize < segments.length) {
+            throw new IllegalArgumentException("maxSize must be >= number of segments");
+        }
+        this.maxSize = maxSize;
+        for (int i = 0; i < segments.length; i++) {
+            segments[i].setMaxSize(share(maxSize, segments.length, i));
+        }
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Return the maximum number of entries of each segment.
+     *
+     * @return the maximum sizes of the segments
+     */
+    public int[] getSegmentMaxSizes() {
+        int[] sizes = new int[segments.length];
+        for (int i = 0; i < segments.length; i++) {
+            sizes[i] = segments[i].getMaxSize();
+        }
+        return sizes;
+    }
+
+    public void setExpireAfterWrite(long duration, TimeUnit unit) {
+        for (LRUCache<K, V> segment : segments) {
+            segment.setExpireAfterWrite(duration, unit);
+        }
+    }
+
+    public void setExpireAfterAccess(long duration, TimeUnit unit) {
+        for (LRUCache<K, V> segment : segments) {
+            segment.setExpireAfterAccess(duration, unit);
+        }
+    }
+
+    public synchronized void setRecordStats(boolean recordStats) {
+        for (LRUCache<K, V> segment : segments) {
+            segment.setRecordStats(recordStats);
+        }
+        rebalanced = new CacheStats[segments.length];
+    }
+
+    /**
+     * Return a snapshot of the statistics of all segments.
+     *
+     * @return the statistics
+     */
+    public CacheStats stats() {
+        CacheStats stats = CacheStats.empty();
+        for (LRUCache<K, V> segment : segments) {
+            stats = stats.plus(segment.stats());
+        }
+        return stats;
+    }
+
+    /**
+     * Split the maximum size between the segments by their share of the hits since the
+     * last rebalance. Every segment keeps at least half of an even share, so that a
+     * segment that is cold now can still warm up. Nothing changes if no hits were
+     * recorded, for example because statistics are not enabled.
+     */
+    public synchronized void rebalance() {
+        int n = segments.length;
+        long[] hits = new long[n];
+        CacheStats[] current = new CacheStats[n];
+        long total = 0L;
+        for (int i = 0; i < n; i++) {
+            current[i] = segments[i].stats();
+            hits[i] = rebalanced[i] != null ?
+                    current[i].minus(rebalanced[i]).getHitCount() : current[i].getHitCount();
+            total += hits[i];
+        }
+        rebalanced = current;
+        if (total == 0L) {
+            return;
+        }
+        int floor = Math.max(1, maxSize / (2 * n));
+        long distributable = (long) maxSize - (long) floor * n;
+        int[] sizes = new int[n];
+        long assigned = 0L;
+        int hottest = 0;
+        for (int i = 0; i < n; i++) {
+            sizes[i] = floor + (int) (distributable * hits[i] / total);
+            assigned += sizes[i];
+            if (hits[i] > hits[hottest]) {
+                hottest = i;
+            }
+        }
+        sizes[hottest] += (int) (maxSize - assigned);
+        // shrink first, so the total stays within the maximum size
+        for (int i = 0; i < n; i++) {
+            if (sizes[i] < segments[i].getMaxSize()) {
+                segments[i].setMaxSize(sizes[i]);
+            }
+        }
+        for (int i = 0; i < n; i++) {
+            if (sizes[i] > segments[i].getMaxSize()) {
+                segments[i].setMaxSize(sizes[i]);
+            }
+        }
+    }
+
+    @Override
+    public int size() {
+        long size = 0L;
+        for (LRUCache<K, V> segment : segments) {
+            size += segment.size();
+        }
+        return (int) Math.min(Integer.MAX_VALUE, size);
+    }
+
+    @Override
+    public boolean isEmpty() {
+        for (LRUCache<K, V> segment : segments) {
+            if (!segment.isEmpty()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return segmentFor(key).containsKey(key);
+    }
+
+    @Override
+    public boolean containsValue(Object value) {
+        for (LRUCache<K, V> segment : segments) {
+            if (segment.containsValue(value)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public V get(Object key) {
+        return segmentFor(key).get(key);
+    }
+
+    /**
+     * Get the value for a key, loading it if it is absent, with at most one load per key
+     * in flight.
+     *
+     * @param key the key
+     * @param loader the loader
+     * @return the value, or null if the loader returned null
+     * @see LRUCache#get(Object, Function)
+     */
+    public V get(K key, Function<? super K, ? extends V> loader) {
+        return segmentFor(key).get(key, loader);
+    }
+
+    /**
+     * Get the values for keys, loading the absent ones with one call of the bulk loader
+     * per segment.
+     *
+     * @param keys the keys
+     * @param bulkLoader the bulk loader
+     * @return the present values of the keys, in the order of the keys
+     * @see LRUCache#getAll(Iterable, Function)
+     */
+    public Map<K, V> getAll(Iterable<? extends K> keys,
+                            Function<? super Set<K>, ? extends Map<? extends K, ? extends V>> bulkLoader) {
+        List<List<K>> keysBySegment = new ArrayList<>(segments.length);
+        for (int i = 0; i < segments.length; i++) {
+            keysBySegment.add(new ArrayList<>());
+        }
+        for (K key : keys) {
+            keysBySegment.get(segmentIndex(key)).add(key);
+        }
+        Map<K, V> values = new LinkedHashMap<>();
+        for (int i = 0; i < segments.length; i++) {
+            if (!keysBySegment.get(i).isEmpty()) {
+                values.putAll(segments[i].getAll(keysBySegment.get(i), bulkLoader));
+            }
+        }
+        Map<K, V> ordered = new LinkedHashMap<>();
+        for (K key : keys) {
+            V value = values.get(key);
+            if (value != null) {
+                ordered.put(key, value);
+            }
+        }
+        return ordered;
+    }
+
+    @Override
+    public V computeIfAbsent(K key, Function<? super K, ? extends V> mappingFunction) {
+        return segmentFor(key).computeIfAbsent(key, mappingFunction);
+    }
+
+    @Override
+    public V compute(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+        return segmentFor(key).compute(key, remappingFunction);
+    }
+
+    @Override
+    public V computeIfPresent(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+        return segmentFor(key).computeIfPresent(key, remappingFunction);
+    }
+
+    @Override
+    public V merge(K key, V value, BiFunction<? super V, ? super V, ? extends V> remappingFunction) {
+        return segmentFor(key).merge(key, value, remappingFunction);
+    }
+
+    @Override
+    public V put(K key, V value) {
+        return segmentFor(key).put(key, value);
+    }
+
+    @Override
+    public V putIfAbsent(K key, V value) {
+        return segmentFor(key).putIfAbsent(key, value);
+    }
+
+    @Override
+    public void putAll(Map<? extends K, ? extends V> m) {
+        for (Entry<? extends K, ? extends V> entry : m.entrySet()) {
+            put(entry.getKey(), entry.getValue());
+        }
+    }
+
+    @Override
+    public V replace(K key, V value) {
+        return segmentFor(key).replace(key, value);
+    }
+
+    @Override
+    public boolean replace(K key, V oldValue, V newValue) {
+        return segmentFor(key).replace(key, oldValue, newValue);
+    }
+
+    @Override
+    public V remove(Object key) {
+        return segmentFor(key).remove(key);
+    }
+
+    @Override
+    public boolean remove(Object key, Object value) {
+        return segmentFor(key).remove(key, value);
+    }
+
+    @Override
+    public void clear() {
+        for (LRUCache<K, V> segment : segments) {
+            segment.clear();
+        }
+    }
+
+    @Override
+    public Set<Entry<K, V>> entrySet() {
+        Set<Entry<K, V>> es = entrySet;
+        return es != null ? es : (entrySet = new EntrySetView());
+    }
+
+    /**
+     * Return the number of entries in the eviction orders of all segments, after applying
+     * all pending changes.
+     *
+     * @return the number of entries in the eviction orders
+     */
+    public int queueSize() {
+        int size = 0;
+        for (LRUCache<K, V> segment : segments) {
+            size += segment.queueSize();
+        }
+        return size;
+    }
+
+    /**
+     * Apply all pending changes in all segments.
+     */
+    public void cleanUp() {
+        for (LRUCache<K, V> segment : segments) {
+            segment.cleanUp();
+        }
+    }
+
+    private LRUCache<K, V> segmentFor(Object key) {
+        return segments[segmentIndex(key)];
+    }
+
+    /**
+     * Select a segment by the high bits of the scrambled hash, which are independent of the
+     * low bits that select the bins of the hash table in the segment.
+     */
+    int segmentIndex(Object key) {
+        int h = key.hashCode();
+        h = (h ^ (h >>> 16)) * 0x9E3779B9;
+        return (h >>> 16) & mask;
+    }
+
+    private static int share(int maxSize, int n, int i) {
+        return maxSize / n + (i < maxSize % n ? 1 : 0);
+    }
+
+    private final class EntrySetView extends AbstractSet<Entry<K, V>> {
+
+        @Override
+        public int size() {
+            return ShardedCache.this.size();
+        }
+
+        @Override
+        public void clear() {
+            ShardedCache.this.clear();
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            if (!(o instanceof Entry)) {
+                return false;
+            }
+            Object key = ((Entry<?, ?>) o).getKey();
+            return key != null && segmentFor(key).entrySet().contains(o);
+        }
+
+        @Override
+        public boolean remove(Object o) {
+            if (!(o instanceof Entry)) {
+                return false;
+            }
+            Object key = ((Entry<?, ?>) o).getKey();
+            return key != null && segmentFor(key).entrySet().remove(o);
+        }
+
+        @Override
+        public Iterator<Entry<K, V>> iterator() {
+            return new Iterator<>() {
+
+                private int segment;
+
+                private Iterator<Entry<K, V>> it = segments[0].entrySet().iterator();
+
+                private Iterator<Entry<K, V>> last;
+
+                @Override
+                public boolean hasNext() {
+                    while (!it.hasNext()) {
+                        if (++segment >= segments.length) {
+                            return false;
+                        }
+                        it = segments[segment].entrySet().iterator();
+                    }
+                    return true;
+                }
+
+                @Override
+                public Entry<K, V> next() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    last = it;
+                    return it.next();
+                }
+
+                @Override
+                public void remove() {
+                    if (last == null) {
+                        throw new IllegalStateException();
+                    }
+                    last.remove();
+                    last = null;
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package org.xbib.concurrent.util;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Records the statistics of a cache in striped counters, so that concurrent readers do not
+ * contend on a single counter. The {@link #DISABLED} counter records nothing.
+ */
+class StatsCounter {
+
+    static final StatsCounter DISABLED = new StatsCounter() {
+
+        @Override
+        void recordHits(int count) {
+        }
+
+        @Override
+        void recordMisses(int count) {
+        }
+
+        @Override
+        void recordLoadSuccess(long loadTime) {
+        }
+
+        @Override
+        void recordLoadFailure(long loadTime) {
+        }
+
+        @Override
+        void recordEviction() {
+        }
+
+        @Override
+        CacheStats snapshot() {
+            return CacheStats.empty();
+        }
+    };
+
+    private final LongAdder hitCount = new LongAdder();
+
+    private final LongAdder missCount = new LongAdder();
+
+    private final LongAdder loadSuccessCount = new LongAdder();
+
+    private final LongAdder loadFailureCount = new LongAdder();
+
+    private final LongAdder totalLoadTime = new LongAdder();
+
+    private final LongAdder evictionCount = new LongAdder();
+
+    void recordHits(int count) {
+        hitCount.add(count);
+    }
+
+    void recordMisses(int count) {
+        missCount.add(count);
+    }
+
+    void recordLoadSuccess(long loadTime) {
+        loadSuccessCount.increment();
+        totalLoadTime.add(loadTime);
+    }
+
+    void recordLoadFailure(long loadTime) {
+        loadFailureCount.increment();
+        totalLoadTime.add(loadTime);
+    }
+
+    void recordEviction() {
+        evictionCount.increment();
+    }
+
+    CacheStats snapshot() {
+        return new CacheStats(hitCount.sum(), missCount.sum(), loadSuccessCount.sum(),
+                loadFailureCount.sum(), totalLoadTime.sum(), evictionCount.sum());
+    }
+}
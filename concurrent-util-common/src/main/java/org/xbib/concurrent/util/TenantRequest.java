@@ -0,0 +1,15 @@
+package org.xbib.concurrent.util;
+
+/**
+ * A request that belongs to a tenant, for fair scheduling of requests
+ * between tenants by a {@link WeightedFairQueue}.
+ */
+public interface TenantRequest extends Request {
+
+    /**
+     * Return the tenant of this request.
+     *
+     * @return the tenant id
+     */
+    String getTenant();
+}
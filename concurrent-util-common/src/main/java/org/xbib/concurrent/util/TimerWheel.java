@@ -0,0 +1,185 @@
+package org.xbib.concurrent.util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * A hierarchical timer wheel for expiring cache nodes in O(1) amortized time.
+ *
+ * The wheels have buckets that span about a second, a minute, an hour, a day, and a
+ * week. A node is linked into the bucket of the coarsest wheel that still resolves its
+ * expiration time relative to the current time. When the time advances, the buckets that
+ * were passed are emptied: nodes that are due are expired, all others cascade into a bucket
+ * of a finer wheel. Only buckets that were passed are visited, so there is no scan over
+ * all entries. Not thread-safe, it is guarded by the maintenance lock of the cache.
+ *
+ * @param <K> the key type
+ * @param <V> the value type
+ */
+final class TimerWheel<K, V> {
+
+    private static final int[] BUCKETS = { 64, 64, 32, 4, 1 };
+
+    private static final long[] SPANS = {
+            ceilingPowerOfTwo(TimeUnit.SECONDS.toNanos(1)),
+            ceilingPowerOfTwo(TimeUnit.MINUTES.toNanos(1)),
+            ceilingPowerOfTwo(TimeUnit.HOURS.toNanos(1)),
+            ceilingPowerOfTwo(TimeUnit.DAYS.toNanos(1)),
+            BUCKETS[3] * ceilingPowerOfTwo(TimeUnit.DAYS.toNanos(1)),
+            BUCKETS[3] * ceilingPowerOfTwo(TimeUnit.DAYS.toNanos(1)),
+    };
+
+    private static final long[] SHIFT = {
+            Long.numberOfTrailingZeros(SPANS[0]),
+            Long.numberOfTrailingZeros(SPANS[1]),
+            Long.numberOfTrailingZeros(SPANS[2]),
+            Long.numberOfTrailingZeros(SPANS[3]),
+            Long.numberOfTrailingZeros(SPANS[4]),
+    };
+
+    private final LRUCache.Node<K, V>[][] wheel;
+
+    private long nanos;
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    TimerWheel(long nanos) {
+        this.nanos = nanos;
+        this.wheel = new LRUCache.Node[BUCKETS.length][];
+        for (int i = 0; i < wheel.length; i++) {
+            wheel[i] = new LRUCache.Node[BUCKETS[i]];
+            for (int j = 0; j < wheel[i].length; j++) {
+                LRUCache.Node<K, V> sentinel = new LRUCache.Node<>(null, null);
+                sentinel.timerPrev = sentinel;
+                sentinel.timerNext = sentinel;
+                wheel[i][j] = sentinel;
+            }
+        }
+    }
+
+    /**
+     * Advance the time and pass the nodes that are due to the expirer. The expirer returns
+     * false if a node must not be expired, then it is scheduled again.
+     *
+     * @param currentTimeNanos the current time
+     * @param expirer expires a node
+     */
+    void advance(long currentTimeNanos, Expirer<K, V> expirer) {
+        long previousTimeNanos = nanos;
+        nanos = currentTimeNanos;
+        for (int i = 0; i < SHIFT.length; i++) {
+            long previousTicks = previousTimeNanos >>> SHIFT[i];
+            long currentTicks = currentTimeNanos >>> SHIFT[i];
+            if (currentTicks - previousTicks <= 0L) {
+                break;
+            }
+            expire(i, previousTicks, currentTicks, expirer);
+        }
+    }
+
+    /**
+     * Schedule a node for its {@link LRUCache.Node#variableTime}, or reschedule it if it is
+     * already scheduled.
+     *
+     * @param node the node
+     */
+    void schedule(LRUCache.Node<K, V> node) {
+        if (node.timerNext != null) {
+            unlink(node);
+        }
+        link(findBucket(node.variableTime), node);
+    }
+
+    /**
+     * Remove a node from the wheel if it is scheduled.
+     *
+     * @param node the node
+     */
+    void deschedule(LRUCache.Node<K, V> node) {
+        if (node.timerNext != null) {
+            unlink(node);
+        }
+    }
+
+    /**
+     * Visit all scheduled nodes.
+     *
+     * @param consumer the consumer of the nodes
+     */
+    void forEach(Consumer<LRUCache.Node<K, V>> consumer) {
+        for (LRUCache.Node<K, V>[] buckets : wheel) {
+            for (LRUCache.Node<K, V> sentinel : buckets) {
+                for (LRUCache.Node<K, V> node = sentinel.timerNext; node != sentinel; ) {
+                    LRUCache.Node<K, V> next = node.timerNext;
+                    consumer.accept(node);
+                    node = next;
+                }
+            }
+        }
+    }
+
+    private void expire(int index, long previousTicks, long currentTicks, Expirer<K, V> expirer) {
+        LRUCache.Node<K, V>[] buckets = wheel[index];
+        int mask = buckets.length - 1;
+        int steps = (int) Math.min(1L + Math.abs(currentTicks - previousTicks), buckets.length);
+        int start = (int) (previousTicks & mask);
+        int end = start + steps;
+        for (int i = start; i < end; i++) {
+            LRUCache.Node<K, V> sentinel = buckets[i & mask];
+            LRUCache.Node<K, V> node = sentinel.timerNext;
+            sentinel.timerPrev = sentinel;
+            sentinel.timerNext = sentinel;
+            while (node != sentinel) {
+                LRUCache.Node<K, V> next = node.timerNext;
+                node.timerPrev = null;
+                node.timerNext = null;
+                if (node.variableTime - nanos > 0L || !expirer.expire(node)) {
+                    link(findBucket(node.variableTime), node);
+                }
+                node = next;
+            }
+        }
+    }
+
+    private LRUCache.Node<K, V> findBucket(long time) {
+        long duration = time - nanos;
+        int length = wheel.length - 1;
+        for (int i = 0; i < length; i++) {
+            if (duration < SPANS[i + 1]) {
+                long ticks = time >>> SHIFT[i];
+                int index = (int) (ticks & (wheel[i].length - 1));
+                return wheel[i][index];
+            }
+        }
+        return wheel[length][0];
+    }
+
+    private void link(LRUCache.Node<K, V> sentinel, LRUCache.Node<K, V> node) {
+        node.timerPrev = sentinel.timerPrev;
+        node.timerNext = sentinel;
+        sentinel.timerPrev.timerNext = node;
+        sentinel.timerPrev = node;
+    }
+
+    private void unlink(LRUCache.Node<K, V> node) {
+        node.timerPrev.timerNext = node.timerNext;
+        node.timerNext.timerPrev = node.timerPrev;
+        node.timerPrev = null;
+        node.timerNext = null;
+    }
+
+    private static long ceilingPowerOfTwo(long x) {
+        return 1L << -Long.numberOfLeadingZeros(x - 1);
+    }
+
+    /**
+     * Expires a due node.
+     *
+     * @param <K> the key type
+     * @param <V> the value type
+     */
+    @FunctionalInterface
+    interface Expirer<K, V> {
+
+        boolean expire(LRUCache.Node<K, V> node);
+    }
+}
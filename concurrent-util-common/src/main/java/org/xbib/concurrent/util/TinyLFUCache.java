@@ -0,0 +1,31 @@
+package org.xbib.concurrent.util;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Concurrent cache with Window TinyLFU eviction.
+ *
+ * Like {@link LRUCache}, but new entries are admitted to the main space only if they are
+ * estimated to be used more frequently than the entry they would replace. The frequencies are
+ * kept in a count-min sketch that ages periodically. This keeps the hit rate of skewed workloads
+ * high when they are mixed with scans of cold keys, which flush a plain LRU cache.
+ *
+ * @param <K> the key type
+ * @param <V> the value type
+ */
+public class TinyLFUCache<K, V> extends LRUCache<K, V> {
+
+    public TinyLFUCache(int maxSize) {
+        super(maxSize, new ConcurrentHashMap<>(), new TinyLFUPolicy<>(maxSize));
+    }
+
+    public TinyLFUCache(int initialCapacity, int maxSize) {
+        super(maxSize, new ConcurrentHashMap<>(initialCapacity), new TinyLFUPolicy<>(maxSize));
+    }
+
+    public TinyLFUCache(Map<? extends K, ? extends V> m, int maxSize) {
+        this(Math.max(m.size(), 16), maxSize);
+        putAll(m);
+    }
+}
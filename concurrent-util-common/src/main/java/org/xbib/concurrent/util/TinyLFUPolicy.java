@@ -0,0 +1,202 @@
+package org.xbib.concurrent.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Consumer;
+
+/**
+ * Window TinyLFU eviction.
+ *
+ * New entries enter a small admission window, an LRU list of about one percent of the
+ * maximum. Entries that fall out of the window compete with the least recently used entry
+ * of the main space, and the one with the higher estimated frequency by a
+ * {@link FrequencySketch} stays. The main space is a segmented LRU with a probation
+ * segment and a protected segment of eighty percent, entries move to the protected
+ * segment on their second access. A burst of one-time keys, like a scan, therefore passes
+ * through the window without displacing the frequently used entries.
+ *
+ * @param <K> the key type
+ * @param <V> the value type
+ */
+final class TinyLFUPolicy<K, V> implements EvictionPolicy<K, V> {
+
+    private static final int WINDOW = 1;
+
+    private static final int PROBATION = 2;
+
+    private static final int PROTECTED = 3;
+
+    private static final double WINDOW_PERCENTAGE = 0.01d;
+
+    private static final double PROTECTED_PERCENTAGE = 0.8d;
+
+    private final AccessOrderDeque<K, V> window;
+
+    private final AccessOrderDeque<K, V> probation;
+
+    private final AccessOrderDeque<K, V> protectedSegment;
+
+    private final FrequencySketch sketch;
+
+    private long maximum;
+
+    private long windowMaximum;
+
+    private long protectedMaximum;
+
+    TinyLFUPolicy(long maximum) {
+        this.window = new AccessOrderDeque<>();
+        this.probation = new AccessOrderDeque<>();
+        this.protectedSegment = new AccessOrderDeque<>();
+        this.sketch = new FrequencySketch(maximum);
+        setMaximum(maximum);
+    }
+
+    @Override
+    public void setMaximum(long maximum) {
+        this.maximum = maximum;
+        this.windowMaximum = Math.max(1L, (long) (maximum * WINDOW_PERCENTAGE));
+        this.protectedMaximum = (long) ((maximum - windowMaximum) * PROTECTED_PERCENTAGE);
+    }
+
+    @Override
+    public void ensureCapacity(long size) {
+        sketch.ensureCapacity(size);
+    }
+
+    @Override
+    public void onAdd(LRUCache.Node<K, V> node) {
+        sketch.increment(node.key);
+        node.queueType = WINDOW;
+        window.addLast(node);
+    }
+
+    @Override
+    public void onAccess(LRUCache.Node<K, V> node) {
+        sketch.increment(node.key);
+        switch (node.queueType) {
+            case WINDOW:
+                window.moveToBack(node);
+                break;
+            case PROBATION:
+                probation.unlink(node);
+                node.queueType = PROTECTED;
+                protectedSegment.addLast(node);
+                demote();
+                break;
+            case PROTECTED:
+                protectedSegment.moveToBack(node);
+                break;
+            default:
+                break;
+        }
+    }
+
+    @Override
+    public void updateWeight(LRUCache.Node<K, V> node, int weight) {
+        deque(node.queueType).updateWeight(node, weight);
+        if (node.queueType == PROTECTED) {
+            demote();
+        }
+    }
+
+    @Override
+    public void onRemove(LRUCache.Node<K, V> node) {
+        deque(node.queueType).unlink(node);
+        node.queueType = LRUCache.Node.UNLINKED;
+    }
+
+    @Override
+    public void evict(Consumer<LRUCache.Node<K, V>> evictor) {
+        while (window.weight() > windowMaximum) {
+            LRUCache.Node<K, V> candidate = window.peekFirst();
+            window.unlink(candidate);
+            candidate.queueType = LRUCache.Node.UNLINKED;
+            if (weightedSize() + candidate.policyWeight <= maximum) {
+                candidate.queueType = PROBATION;
+                probation.addLast(candidate);
+                continue;
+            }
+            LRUCache.Node<K, V> victim = probation.size() > 0 ? probation.peekFirst() : protectedSegment.peekFirst();
+            if (victim == null || admit(candidate, victim)) {
+                if (victim != null) {
+                    onRemove(victim);
+                    evictor.accept(victim);
+                }
+                candidate.queueType = PROBATION;
+                probation.addLast(candidate);
+            } else {
+                evictor.accept(candidate);
+            }
+        }
+        while (weightedSize() > maximum) {
+            LRUCache.Node<K, V> victim = probation.size() > 0 ? probation.peekFirst() :
+                    protectedSegment.size() > 0 ? protectedSegment.peekFirst() : window.peekFirst();
+            onRemove(victim);
+            evictor.accept(victim);
+        }
+    }
+
+    /**
+     * Return the protected segment first, then the window, which holds the newest entries,
+     * and then the probation segment, each from the most recently used.
+     */
+    @Override
+    public List<LRUCache.Node<K, V>> hottest(int limit) {
+        List<LRUCache.Node<K, V>> list = new ArrayList<>(Math.min(limit, size()));
+        protectedSegment.addDescending(list, limit);
+        window.addDescending(list, limit);
+        probation.addDescending(list, limit);
+        return list;
+    }
+
+    @Override
+    public int size() {
+        return window.size() + probation.size() + protectedSegment.size();
+    }
+
+    @Override
+    public long weightedSize() {
+        return window.weight() + probation.weight() + protectedSegment.weight();
+    }
+
+    private void demote() {
+        while (protectedSegment.weight() > protectedMaximum) {
+            LRUCache.Node<K, V> demoted = protectedSegment.peekFirst();
+            protectedSegment.unlink(demoted);
+            demoted.queueType = PROBATION;
+            probation.addLast(demoted);
+        }
+    }
+
+    /**
+     * Decide if the candidate from the window replaces the victim from the main space.
+     * A warm candidate that loses is still admitted by a small chance, so an attacker
+     * cannot keep a victim in place by inflating its frequency.
+     */
+    private boolean admit(LRUCache.Node<K, V> candidate, LRUCache.Node<K, V> victim) {
+        int candidateFrequency = sketch.frequency(candidate.key);
+        int victimFrequency = sketch.frequency(victim.key);
+        if (candidateFrequency > victimFrequency) {
+            return true;
+        }
+        if (candidateFrequency <= 5) {
+            return false;
+        }
+        return (ThreadLocalRandom.current().nextInt() & 127) == 0;
+    }
+
+    private AccessOrderDeque<K, V> deque(int queueType) {
+        switch (queueType) {
+            case WINDOW:
+                return window;
+            case PROBATION:
+                return probation;
+            case PROTECTED:
+                return protectedSegment;
+            default:
+                throw new IllegalStateException("node is not linked");
+        }
+    }
+}
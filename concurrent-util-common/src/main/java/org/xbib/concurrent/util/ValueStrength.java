@@ -0,0 +1,24 @@
+package org.xbib.concurrent.util;
+
+/**
+ * How a cache references its values.
+ */
+public enum ValueStrength {
+
+    /**
+     * Values are referenced strongly and removed only by the cache.
+     */
+    STRONG,
+
+    /**
+     * Values are softly referenced, so the garbage collector removes the least recently
+     * used values when the heap runs out of memory.
+     */
+    SOFT,
+
+    /**
+     * Values are weakly referenced, so they are removed as soon as nothing else refers
+     * to them.
+     */
+    WEAK
+}
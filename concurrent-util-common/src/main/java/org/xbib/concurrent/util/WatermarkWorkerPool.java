@@ -0,0 +1,75 @@
+package org.xbib.concurrent.util;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.LongConsumer;
+
+/**
+ * A worker pool that tracks the progress of its requests as a completion watermark.
+ *
+ * Each request gets a submission index at {@link #execute(Request)}. The watermark is the lowest
+ * index whose request has not completed yet, so all requests below it are done, successfully
+ * or not. The watermark is maintained by a lock-free {@link CompletionWatermark} and can be read
+ * at any time by {@link #getWatermark()} or followed by a listener, for checkpointing
+ * without pausing producers.
+ *
+ * @param <R> the request type
+ * @param <W> the worker type
+ */
+public abstract class WatermarkWorkerPool<R extends SequencedRequest, W extends Worker<R>>
+        extends AbstractWorkerPool<R, W> {
+
+    private final CompletionWatermark completionWatermark;
+
+    public WatermarkWorkerPool(String name,
+                               int workerCount,
+                               WorkerPoolListener<R, W> listener,
+                               int windowSize,
+                               LongConsumer watermarkListener) {
+        this(name, workerCount, listener, DEFAULT_TIMEOUT_IN_SECONDS, windowSize, watermarkListener);
+    }
+
+    public WatermarkWorkerPool(String name,
+                               int workerCount,
+                               WorkerPoolListener<R, W> listener,
+                               int timeoutInSeconds,
+                               int windowSize,
+                               LongConsumer watermarkListener) {
+        super(name, workerCount, listener, timeoutInSeconds);
+        this.completionWatermark = new CompletionWatermark(windowSize, watermarkListener);
+    }
+
+    @Override
+    protected void beforeExecute(R request) throws IOException, InterruptedException {
+        try {
+            request.setSequence(completionWatermark.acquire(getTimeoutInSeconds(), TimeUnit.SECONDS));
+        } catch (TimeoutException e) {
+            throw new IOException(e);
+        }
+    }
+
+    @Override
+    public void afterExecute(R request, W worker, Throwable throwable) {
+        completionWatermark.complete(request.getSequence());
+    }
+
+    /**
+     * Return the completion watermark, the lowest submission index whose request has
+     * not completed yet.
+     *
+     * @return the watermark
+     */
+    public long getWatermark() {
+        return completionWatermark.getWatermark();
+    }
+
+    /**
+     * Return the number of submitted requests.
+     *
+     * @return the number of submitted requests
+     */
+    public long getSubmitted() {
+        return completionWatermark.getNext();
+    }
+}
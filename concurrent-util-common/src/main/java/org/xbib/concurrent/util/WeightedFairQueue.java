@@ -0,0 +1,367 @@
+package org.xbib.concurrent.util;
+
+import java.util.AbstractQueue;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.ToIntFunction;
+
+/**
+ * A blocking queue that schedules requests fairly between tenants by deficit round robin.
+ *
+ * Each tenant of a {@link TenantRequest} has its own sub-queue. The sub-queues with
+ * pending requests are visited in turn, and in each turn a tenant may take as many requests
+ * as its deficit allows, which is replenished by the quantum times the weight of the tenant.
+ * A tenant with weight 3 therefore gets three times the share of a tenant with weight 1
+ * as long as both have pending requests.
+ *
+ * Sub-queues are created when the first request of a tenant arrives and are dropped as soon
+ * as they run empty, so only tenants with pending requests occupy memory.
+ *
+ * Requests which are not tenant requests, like the poison of a worker pool, are taken
+ * only after all pending tenant requests. Use this queue as the queue of a worker pool by
+ * {@link AbstractWorkerPool#AbstractWorkerPool(String, int, WorkerPoolListener, int, BlockingQueue)}.
+ * The queue is always bounded, so that producers of a pool wait when the workers fall
+ * behind, like with the default synchronous hand-off. A small capacity, like the number
+ * of workers, keeps the backlog in the producers, where it is visible.
+ *
+ * @param <R> the request type
+ */
+public class WeightedFairQueue<R extends Request> extends AbstractQueue<R> implements BlockingQueue<R> {
+
+    private static final String DEFAULT_TENANT = "";
+
+    private final ToIntFunction<String> weights;
+
+    private final int quantum;
+
+    private final int capacity;
+
+    private final ReentrantLock lock;
+
+    private final Condition notEmpty;
+
+    private final Condition notFull;
+
+    private final Map<String, SubQueue<R>> subQueues;
+
+    private final ArrayDeque<SubQueue<R>> active;
+
+    private final ArrayDeque<R> others;
+
+    private int count;
+
+    public WeightedFairQueue(int capacity) {
+        this(tenant -> 1, capacity);
+    }
+
+    public WeightedFairQueue(ToIntFunction<String> weights, int capacity) {
+        this(weights, 1, capacity);
+    }
+
+    /**
+     * Create a weighted fair queue.
+     *
+     * @param weights the weight for each tenant, evaluated each time a tenant starts a new turn
+     * @param quantum the number of requests per weight unit that a tenant may take in a turn
+     * @param capacity the maximum number of pending requests
+     */
+    public WeightedFairQueue(ToIntFunction<String> weights, int quantum, int capacity) {
+        if (quantum < 1) {
+            throw new IllegalArgumentException("quantum must be >= 1");
+        }
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be >= 1");
+        }
+        this.weights = Objects.requireNonNull(weights);
+        this.quantum = quantum;
+        this.capacity = capacity;
+        this.lock = new ReentrantLock();
+        this.notEmpty = lock.newCondition();
+        this.notFull = lock.newCondition();
+        this.subQueues = new HashMap<>();
+        this.active = new ArrayDeque<>();
+        this.others = new ArrayDeque<>();
+    }
+
+    /**
+     * Return the number of tenants with pending requests.
+     *
+     * @return the number of tenants
+     */
+    public int tenantCount() {
+        lock.lock();
+        try {
+            return subQueues.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean offer(R request) {
+        Objects.requireNonNull(request);
+        lock.lock();
+        try {
+            if (count == capacity) {
+                return false;
+            }
+            enqueue(request);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean offer(R request, long timeout, TimeUnit unit) throws InterruptedException {
+        Objects.requireNonNull(request);
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while (count == capacity) {
+                if (nanos <= 0L) {
+                    return false;
+                }
+                nanos = notFull.awaitNanos(nanos);
+            }
+            enqueue(request);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void put(R request) throws InterruptedException {
+        Objects.requireNonNull(request);
+        lock.lockInterruptibly();
+        try {
+            while (count == capacity) {
+                notFull.await();
+            }
+            enqueue(request);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public R take() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (count == 0) {
+                notEmpty.await();
+            }
+            return dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public R poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while (count == 0) {
+                if (nanos <= 0L) {
+                    return null;
+                }
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+            return dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public R poll() {
+        lock.lock();
+        try {
+            return count > 0 ? dequeue() : null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public R peek() {
+        lock.lock();
+        try {
+            SubQueue<R> subQueue = active.peekFirst();
+            return subQueue != null ? subQueue.requests.peekFirst() : others.peekFirst();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        lock.lock();
+        try {
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int remainingCapacity() {
+        lock.lock();
+        try {
+            return capacity - count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        if (o == null) {
+            return false;
+        }
+        lock.lock();
+        try {
+            Iterator<SubQueue<R>> it = active.iterator();
+            while (it.hasNext()) {
+                SubQueue<R> subQueue = it.next();
+                if (subQueue.requests.remove(o)) {
+                    if (subQueue.requests.isEmpty()) {
+                        it.remove();
+                        subQueues.remove(subQueue.tenant);
+                    }
+                    removed();
+                    return true;
+                }
+            }
+            if (others.remove(o)) {
+                removed();
+                return true;
+            }
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int drainTo(Collection<? super R> c) {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drainTo(Collection<? super R> c, int maxElements) {
+        Objects.requireNonNull(c);
+        if (c == this) {
+            throw new IllegalArgumentException();
+        }
+        lock.lock();
+        try {
+            int n = 0;
+            while (n < maxElements && count > 0) {
+                c.add(dequeue());
+                n++;
+            }
+            return n;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Return an iterator over a snapshot of the pending requests, in no particular order.
+     * The iterator does not support removal.
+     *
+     * @return the iterator
+     */
+    @Override
+    public Iterator<R> iterator() {
+        lock.lock();
+        try {
+            List<R> list = new ArrayList<>(count);
+            for (SubQueue<R> subQueue : active) {
+                list.addAll(subQueue.requests);
+            }
+            list.addAll(others);
+            return Collections.unmodifiableList(list).iterator();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void enqueue(R request) {
+        if (request instanceof TenantRequest) {
+            String tenant = ((TenantRequest) request).getTenant();
+            if (tenant == null) {
+                tenant = DEFAULT_TENANT;
+            }
+            SubQueue<R> subQueue = subQueues.get(tenant);
+            if (subQueue == null) {
+                subQueue = new SubQueue<>(tenant);
+                subQueues.put(tenant, subQueue);
+                active.addLast(subQueue);
+            }
+            subQueue.requests.addLast(request);
+        } else {
+            others.addLast(request);
+        }
+        count++;
+        notEmpty.signal();
+    }
+
+    private R dequeue() {
+        SubQueue<R> subQueue = active.peekFirst();
+        R request;
+        if (subQueue == null) {
+            request = others.pollFirst();
+        } else {
+            if (subQueue.deficit < 1) {
+                // the tenant starts a new turn
+                subQueue.deficit += quantum * Math.max(1, weights.applyAsInt(subQueue.tenant));
+            }
+            request = subQueue.requests.pollFirst();
+            subQueue.deficit--;
+            if (subQueue.requests.isEmpty()) {
+                // idle tenants give up their turn and their sub-queue
+                active.pollFirst();
+                subQueues.remove(subQueue.tenant);
+            } else if (subQueue.deficit < 1) {
+                active.pollFirst();
+                active.addLast(subQueue);
+            }
+        }
+        removed();
+        return request;
+    }
+
+    private void removed() {
+        count--;
+        notFull.signal();
+    }
+
+    private static class SubQueue<R> {
+
+        private final String tenant;
+
+        private final ArrayDeque<R> requests;
+
+        private int deficit;
+
+        SubQueue(String tenant) {
+            this.tenant = tenant;
+            this.requests = new ArrayDeque<>();
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package org.xbib.concurrent.util;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight recorder event: a worker terminated because of an exception and will not be replaced.
+ */
+@Name("org.xbib.concurrent.util.WorkerDied")
+@Label("Worker Died")
+@Category({"xbib", "Worker Pool"})
+@Description("A worker terminated because of an exception and will not be replaced.")
+final class WorkerDiedEvent extends Event {
+
+    @Label("Pool")
+    String pool;
+
+    @Label("Worker")
+    String worker;
+
+    @Label("Exception Class")
+    Class<?> exceptionClass;
+
+    @Label("Message")
+    String message;
+}
@@ -11,6 +11,15 @@ public interface WorkerPool<R extends Request, W extends Worker<R>> extends Auto
 
     void open();
 
+    /**
+     * Return the name of the pool, used in the flight recorder events.
+     *
+     * @return the name
+     */
+    default String getName() {
+        return getClass().getSimpleName();
+    }
+
     String newWorkerName(WorkerPool<R, W> workerPool, int i, int totalWorkerCount);
 
     W newWorker(String name);
@@ -19,6 +28,17 @@ public interface WorkerPool<R extends Request, W extends Worker<R>> extends Auto
 
     void execute(R request);
 
+    /**
+     * Called after a worker has executed a request, or when a request that was accepted
+     * could not be handed off to a worker.
+     *
+     * @param request the request
+     * @param worker the worker, or null if the request was not handed off
+     * @param throwable the exception if the request failed, or null
+     */
+    default void afterExecute(R request, W worker, Throwable throwable) {
+    }
+
     void close() throws IOException;
 
     void close(W worker, Throwable throwable);
@@ -0,0 +1,23 @@
+package org.xbib.concurrent.util;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight recorder event: a worker started to take requests from the queue.
+ */
+@Name("org.xbib.concurrent.util.WorkerStarted")
+@Label("Worker Started")
+@Category({"xbib", "Worker Pool"})
+@Description("A worker started to take requests from the queue.")
+final class WorkerStartedEvent extends Event {
+
+    @Label("Pool")
+    String pool;
+
+    @Label("Worker")
+    String worker;
+}
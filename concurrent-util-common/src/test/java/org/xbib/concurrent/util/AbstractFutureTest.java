@@ -0,0 +1,172 @@
+package org.xbib.concurrent.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class AbstractFutureTest {
+
+    @Test
+    void testStates() throws Exception {
+        TestFuture<String> future = new TestFuture<>();
+        assertFalse(future.isDone());
+        assertThrows(TimeoutException.class, () -> future.get(1, TimeUnit.MILLISECONDS));
+        assertTrue(future.set("a"));
+        assertFalse(future.set("b"));
+        assertFalse(future.cancel(false));
+        assertEquals("a", future.get());
+        assertTrue(future.isSucceeded());
+        assertFalse(future.isFailed());
+        assertEquals(1, future.doneCount.get());
+
+        TestFuture<String> failed = new TestFuture<>();
+        assertTrue(failed.setException(new IllegalStateException()));
+        assertTrue(failed.isFailed());
+        ExecutionException e = assertThrows(ExecutionException.class, failed::get);
+        assertTrue(e.getCause() instanceof IllegalStateException);
+
+        TestFuture<String> cancelled = new TestFuture<>();
+        assertTrue(cancelled.cancel(true));
+        assertTrue(cancelled.isCancelled());
+        assertTrue(cancelled.isDone());
+        assertThrows(CancellationException.class, cancelled::get);
+
+        TestFuture<String> empty = new TestFuture<>();
+        assertTrue(empty.set(null));
+        assertNull(empty.get(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void testWaiters() throws Exception {
+        TestFuture<Integer> future = new TestFuture<>();
+        ExecutorService executorService = Executors.newFixedThreadPool(9);
+        List<Future<Integer>> results = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            boolean timed = i % 2 == 0;
+            results.add(executorService.submit(() -> timed ? future.get(10, TimeUnit.SECONDS) : future.get()));
+        }
+        Future<?> interrupted = executorService.submit(() -> {
+            Thread.currentThread().interrupt();
+            assertThrows(InterruptedException.class, future::get);
+            return null;
+        });
+        interrupted.get();
+        Thread.sleep(50L);
+        future.set(42);
+        for (Future<Integer> result : results) {
+            assertEquals(42, result.get());
+        }
+        executorService.shutdown();
+    }
+
+    @Test
+    void testListeners() throws Exception {
+        TestFuture<Integer> future = new TestFuture<>();
+        List<Integer> calls = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            int n = i;
+            future.addListener(() -> calls.add(n), AbstractFuture.directExecutor());
+        }
+        assertTrue(calls.isEmpty());
+        future.set(1);
+        assertFalse(future.set(2));
+        future.addListener(() -> calls.add(3), AbstractFuture.directExecutor());
+        assertEquals(List.of(0, 1, 2, 3), calls);
+        ExecutorService executorService = Executors.newSingleThreadExecutor();
+        TestFuture<Integer> async = new TestFuture<>();
+        CountDownLatch latch = new CountDownLatch(1);
+        async.addListener(latch::countDown, executorService);
+        async.set(1);
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        executorService.shutdown();
+    }
+
+    @Test
+    void testListenersRunIfDoneThrows() {
+        TestFuture<Integer> future = new TestFuture<>() {
+            @Override
+            protected void done() {
+                throw new IllegalStateException("done");
+            }
+        };
+        List<Integer> calls = new ArrayList<>();
+        future.addListener(() -> calls.add(0), AbstractFuture.directExecutor());
+        assertThrows(IllegalStateException.class, () -> future.set(1));
+        assertTrue(future.isDone());
+        future.addListener(() -> calls.add(1), AbstractFuture.directExecutor());
+        assertEquals(List.of(0, 1), calls);
+    }
+
+    @Test
+    void testErrorOfDirectListenerDrainsQueue() {
+        TestFuture<Integer> first = new TestFuture<>();
+        TestFuture<Integer> second = new TestFuture<>();
+        List<Integer> calls = new ArrayList<>();
+        second.addListener(() -> calls.add(2), AbstractFuture.directExecutor());
+        first.addListener(() -> {
+            // queues the listener of the second future, then fails
+            second.set(2);
+            throw new AssertionError("listener");
+        }, AbstractFuture.directExecutor());
+        assertThrows(AssertionError.class, () -> first.set(1));
+        assertEquals(List.of(2), calls);
+    }
+
+    @Test
+    void testLongListenerChain() throws Exception {
+        List<TestFuture<Integer>> futures = new ArrayList<>();
+        for (int i = 0; i < 100000; i++) {
+            futures.add(new TestFuture<>());
+        }
+        for (int i = 0; i < futures.size() - 1; i++) {
+            TestFuture<Integer> next = futures.get(i + 1);
+            TestFuture<Integer> current = futures.get(i);
+            current.addListener(() -> next.set(current.isSucceeded() ? 1 : 0), AbstractFuture.directExecutor());
+        }
+        futures.get(0).set(1);
+        assertEquals(1, futures.get(futures.size() - 1).get(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void testCompletableFutureTask() throws Exception {
+        CompletableFutureExecutor executor = new CompletableFutureExecutor(2, 2, 1, TimeUnit.SECONDS);
+        Future<Integer> future = executor.submit(() -> 1 + 1);
+        assertEquals(2, future.get());
+        assertTrue(((CompletableFutureTask<Integer>) future).isSucceeded());
+        executor.shutdown();
+    }
+
+    private static class TestFuture<V> extends AbstractFuture<V> {
+
+        private final AtomicInteger doneCount = new AtomicInteger();
+
+        @Override
+        protected boolean set(V value) {
+            return super.set(value);
+        }
+
+        @Override
+        protected boolean setException(Exception exception) {
+            return super.setException(exception);
+        }
+
+        @Override
+        protected void done() {
+            doneCount.incrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package org.xbib.concurrent.util;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+
+public class BloomFilterTest {
+
+    @Test
+    void testNoFalseNegatives() {
+        BloomFilter<Integer> filter = new BloomFilter<>(10000, 0.01d);
+        for (int i = 0; i < 10000; i++) {
+            filter.put(i);
+        }
+        for (int i = 0; i < 10000; i++) {
+            assertTrue(filter.mightContain(i));
+        }
+        assertFalse(filter.put(0));
+    }
+
+    @Test
+    void testFalsePositiveProbability() {
+        BloomFilter<Integer> filter = new BloomFilter<>(10000, 0.01d);
+        for (int i = 0; i < 10000; i++) {
+            filter.put(i);
+        }
+        int falsePositives = 0;
+        for (int i = 10000; i < 110000; i++) {
+            falsePositives += filter.mightContain(i) ? 1 : 0;
+        }
+        // about 1000 expected
+        assertTrue(falsePositives < 2000, "false positives: " + falsePositives);
+        assertTrue(filter.bitSize() < 10000 * 10 + 64);
+    }
+
+    @Test
+    void testInvalidArguments() {
+        assertThrows(IllegalArgumentException.class, () -> new BloomFilter<>(0, 0.01d));
+        assertThrows(IllegalArgumentException.class, () -> new BloomFilter<>(100, 1.0d));
+    }
+}
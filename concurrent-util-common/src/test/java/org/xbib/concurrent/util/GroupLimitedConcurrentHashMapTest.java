@@ -0,0 +1,104 @@
+package org.xbib.concurrent.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+
+public class GroupLimitedConcurrentHashMapTest {
+
+    @Test
+    void testGroupLimits() {
+        GroupLimitedConcurrentHashMap<String, Integer, Character> map =
+                new GroupLimitedConcurrentHashMap<>(5, 2, k -> k.charAt(0), 4);
+        map.setGroupLimit('c', 3);
+        assertNull(map.put("a1", 1));
+        assertNull(map.put("a2", 2));
+        assertEquals(2, map.put("a2", 3));
+        assertThrows(IllegalArgumentException.class, () -> map.put("a3", 4));
+        assertEquals(2, map.getGroupSize('a'));
+        assertNull(map.put("b1", 5));
+        assertNull(map.put("c1", 6));
+        assertNull(map.put("c2", 7));
+        assertEquals(0, map.remainingCapacity());
+        assertThrows(IllegalArgumentException.class, () -> map.put("c3", 8));
+        assertEquals(2, map.getGroupSize('c'));
+        assertNull(map.remove("x"));
+        assertEquals(1, map.remove("a1"));
+        assertNull(map.putIfAbsent("c3", 8));
+        assertEquals(3, map.getGroupLimit('c'));
+        assertEquals(2, map.getGroupLimit('d'));
+        map.clear();
+        assertEquals(5, map.remainingCapacity());
+        assertEquals(0, map.getGroupSize('c'));
+    }
+
+    @Test
+    void testConcurrentQuotas() throws Exception {
+        GroupLimitedConcurrentHashMap<Integer, Integer, Integer> map =
+                new GroupLimitedConcurrentHashMap<>(100, 20, k -> k % 8, 8);
+        ExecutorService executorService = Executors.newFixedThreadPool(8);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            futures.add(executorService.submit(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                for (int i = 0; i < 100000; i++) {
+                    int key = random.nextInt(1000);
+                    if (random.nextBoolean()) {
+                        try {
+                            map.put(key, key);
+                        } catch (IllegalArgumentException e) {
+                            // a quota is exhausted
+                        }
+                    } else {
+                        map.remove(key);
+                    }
+                    assertTrue(map.getGroupSize(key % 8) <= 20);
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executorService.shutdown();
+        assertTrue(map.size() <= 100);
+        assertEquals(100 - map.size(), map.remainingCapacity());
+        int total = 0;
+        for (int g = 0; g < 8; g++) {
+            total += map.getGroupSize(g);
+        }
+        assertEquals(map.size(), total);
+    }
+
+    @Test
+    void testNoRejectionBelowTheLimit() throws Exception {
+        // every thread holds at most one key, so a unit is always free for the next put
+        int threads = 8;
+        GroupLimitedConcurrentHashMap<Integer, Integer, Integer> map =
+                new GroupLimitedConcurrentHashMap<>(threads, threads, k -> 0, 64);
+        ExecutorService executorService = Executors.newFixedThreadPool(threads);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int key = t;
+            futures.add(executorService.submit(() -> {
+                for (int i = 0; i < 1000000; i++) {
+                    map.put(key, i);
+                    map.remove(key);
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executorService.shutdown();
+        assertEquals(0, map.size());
+        assertEquals(threads, map.remainingCapacity());
+    }
+}
@@ -0,0 +1,746 @@
+package org.xbib.concurrent.util;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+public class LRUCacheTest {
+
+    @Test
+    void testLeastRecentlyUsedIsEvicted() {
+        LRUCache<String, Integer> cache = new LRUCache<>(3);
+        cache.put("a", 1);
+        cache.put("b", 2);
+        cache.put("c", 3);
+        assertEquals(1, cache.get("a"));
+        cache.cleanUp();
+        cache.put("d", 4);
+        assertEquals(3, cache.size());
+        assertTrue(cache.containsKey("a"));
+        assertFalse(cache.containsKey("b"));
+        assertTrue(cache.containsKey("c"));
+        assertTrue(cache.containsKey("d"));
+    }
+
+    @Test
+    void testExpireAfterWrite() {
+        AtomicLong ticker = new AtomicLong();
+        LRUCache<String, Integer> cache = new LRUCache<>(100);
+        cache.setTicker(ticker::get);
+        cache.setExpireAfterWrite(10, TimeUnit.SECONDS);
+        cache.put("a", 1);
+        ticker.addAndGet(TimeUnit.SECONDS.toNanos(5));
+        cache.put("b", 2);
+        assertEquals(1, cache.get("a"));
+        ticker.addAndGet(TimeUnit.SECONDS.toNanos(5));
+        assertNull(cache.get("a"));
+        assertFalse(cache.containsKey("a"));
+        assertEquals(2, cache.get("b"));
+        cache.cleanUp();
+        assertEquals(1, cache.size());
+        assertEquals(1, cache.queueSize());
+        assertNull(cache.putIfAbsent("a", 3));
+        ticker.addAndGet(TimeUnit.HOURS.toNanos(1));
+        cache.cleanUp();
+        assertTrue(cache.isEmpty());
+        assertEquals(0, cache.queueSize());
+    }
+
+    @Test
+    void testExpireAfterAccess() {
+        AtomicLong ticker = new AtomicLong();
+        LRUCache<String, Integer> cache = new LRUCache<>(100);
+        cache.setTicker(ticker::get);
+        cache.setExpireAfterAccess(10, TimeUnit.SECONDS);
+        cache.put("a", 1);
+        cache.put("b", 2);
+        for (int i = 0; i < 5; i++) {
+            ticker.addAndGet(TimeUnit.SECONDS.toNanos(5));
+            assertEquals(1, cache.get("a"));
+            cache.cleanUp();
+        }
+        assertNull(cache.get("b"));
+        assertEquals(1, cache.size());
+        assertEquals(1, cache.entrySet().size());
+        ticker.addAndGet(TimeUnit.SECONDS.toNanos(10));
+        assertFalse(cache.entrySet().iterator().hasNext());
+        cache.cleanUp();
+        assertTrue(cache.isEmpty());
+    }
+
+    @Test
+    void testSingleFlightLoad() throws Exception {
+        LRUCache<String, Integer> cache = new LRUCache<>(100);
+        AtomicInteger loads = new AtomicInteger();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executorService = Executors.newFixedThreadPool(8);
+        List<Future<Integer>> futures = new ArrayList<>();
+        futures.add(executorService.submit(() -> cache.get("a", k -> {
+            loads.incrementAndGet();
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+            return 42;
+        })));
+        started.await();
+        for (int i = 0; i < 7; i++) {
+            futures.add(executorService.submit(() -> cache.get("a", k -> loads.incrementAndGet())));
+        }
+        Thread.sleep(100L);
+        release.countDown();
+        for (Future<Integer> future : futures) {
+            assertEquals(42, future.get());
+        }
+        executorService.shutdown();
+        assertEquals(1, loads.get());
+        cache.cleanUp();
+        assertEquals(1, cache.queueSize());
+    }
+
+    @Test
+    void testFailedLoadIsNotCached() {
+        LRUCache<String, Integer> cache = new LRUCache<>(100);
+        assertThrows(IllegalStateException.class, () -> cache.get("a", k -> {
+            throw new IllegalStateException();
+        }));
+        assertFalse(cache.containsKey("a"));
+        assertNull(cache.get("a", k -> null));
+        assertEquals(1, cache.get("a", k -> 1));
+        assertEquals(1, cache.computeIfAbsent("a", k -> 2));
+    }
+
+    @Test
+    void testGetAll() {
+        LRUCache<String, Integer> cache = new LRUCache<>(100);
+        cache.put("b", 2);
+        List<String> requested = new ArrayList<>();
+        Map<String, Integer> values = cache.getAll(Arrays.asList("a", "b", "c", "d"), keys -> {
+            requested.addAll(keys);
+            Map<String, Integer> map = new HashMap<>();
+            map.put("a", 1);
+            map.put("c", 3);
+            map.put("e", 5);
+            return map;
+        });
+        assertEquals(Arrays.asList("a", "c", "d"), requested);
+        assertEquals(Arrays.asList("a", "b", "c"), new ArrayList<>(values.keySet()));
+        assertEquals(5, cache.get("e"));
+        cache.cleanUp();
+        assertEquals(4, cache.queueSize());
+    }
+
+    @Test
+    void testNegativeCaching() {
+        AtomicInteger loads = new AtomicInteger();
+        LRUCache<String, Integer> cache = new LRUCache<>(100);
+        cache.setNegativeCaching(10, 1, TimeUnit.MINUTES);
+        for (int i = 0; i < 3; i++) {
+            assertNull(cache.get("a", k -> {
+                loads.incrementAndGet();
+                return null;
+            }));
+        }
+        assertEquals(1, loads.get());
+        assertEquals(1, cache.absentSize());
+        Map<String, Integer> values = cache.getAll(Arrays.asList("a", "b"), keys -> {
+            assertEquals(Set.of("b"), keys);
+            return Map.of();
+        });
+        assertTrue(values.isEmpty());
+        assertEquals(2, cache.absentSize());
+        cache.put("a", 1);
+        assertEquals(1, cache.absentSize());
+        assertEquals(1, cache.get("a", k -> 2));
+        assertEquals(1, cache.size());
+        BloomFilter<String> filter = new BloomFilter<>(100, 0.01d);
+        filter.put("c");
+        cache.setNegativeCaching(0, 0L, TimeUnit.MINUTES);
+        cache.setKeyFilter(filter);
+        assertNull(cache.get("d", k -> 4));
+        assertEquals(3, cache.get("c", k -> 3));
+        cache.put("d", 4);
+        assertTrue(filter.mightContain("d"));
+    }
+
+    @Test
+    void testComputeIfAbsentWithNegativeCachingAndKeyFilter() {
+        LRUCache<String, Integer> cache = new LRUCache<>(100);
+        cache.setNegativeCaching(10, 1, TimeUnit.MINUTES);
+        cache.setKeyFilter(new BloomFilter<>(100, 0.01d));
+        assertNull(cache.get("a", k -> null));
+        // a key outside of the filter, or known to be absent, can still be computed
+        assertNull(cache.computeIfAbsent("a", k -> null));
+        assertEquals(0, cache.absentSize());
+        assertEquals(1, cache.computeIfAbsent("a", k -> 1));
+        assertEquals(2, cache.computeIfAbsent("b", k -> 2));
+        assertEquals(2, cache.size());
+        cache.remove("b");
+        // the computed key is in the filter now, so a load is not skipped
+        assertEquals(3, cache.get("b", k -> 3));
+    }
+
+    @Test
+    void testMaxWeight() {
+        LRUCache<String, String> cache = new LRUCache<>(1000);
+        cache.setMaxWeight(10, (k, v) -> v.length());
+        cache.put("a", "aaaa");
+        cache.put("b", "bbbb");
+        assertEquals(8, cache.weightedSize());
+        cache.put("a", "a");
+        assertEquals(5, cache.weightedSize());
+        cache.put("c", "ccccc");
+        assertEquals(10, cache.weightedSize());
+        cache.put("d", "dd");
+        assertFalse(cache.containsKey("b"));
+        assertTrue(cache.containsKey("a"));
+        assertEquals(8, cache.weightedSize());
+        assertThrows(IllegalArgumentException.class, () -> cache.put("e", "eeeeeeeeeee"));
+        assertFalse(cache.containsKey("e"));
+        cache.remove("c");
+        assertEquals(3, cache.weightedSize());
+    }
+
+    @Test
+    void testMaxWeightEvictsOversizedEntries() {
+        List<Runnable> tasks = new ArrayList<>();
+        List<List<RemovalNotification<String, String>>> batches = new ArrayList<>();
+        LRUCache<String, String> cache = new LRUCache<>(1000);
+        cache.setRemovalListener(batches::add, tasks::add);
+        cache.put("a", "aaaa");
+        cache.put("b", "bbbbbbbbbbbb");
+        cache.setMaxWeight(10, (k, v) -> v.length());
+        assertFalse(cache.containsKey("b"));
+        assertEquals("aaaa", cache.get("a"));
+        assertEquals(4, cache.weightedSize());
+        tasks.forEach(Runnable::run);
+        assertEquals(List.of(List.of(new RemovalNotification<>("b", "bbbbbbbbbbbb", RemovalCause.SIZE))),
+                batches);
+    }
+
+    @Test
+    void testRefreshAfterWrite() {
+        AtomicLong ticker = new AtomicLong();
+        AtomicInteger reloads = new AtomicInteger();
+        List<Runnable> tasks = new ArrayList<>();
+        LRUCache<String, Integer> cache = new LRUCache<>(100);
+        cache.setTicker(ticker::get);
+        cache.put("a", 1);
+        cache.setRefreshAfterWrite(1, TimeUnit.MINUTES, k -> reloads.incrementAndGet() + 1, tasks::add);
+        assertEquals(1, cache.get("a"));
+        assertTrue(tasks.isEmpty());
+        ticker.addAndGet(TimeUnit.MINUTES.toNanos(1));
+        assertEquals(1, cache.get("a"));
+        assertEquals(1, cache.get("a"));
+        assertEquals(1, tasks.size());
+        tasks.remove(0).run();
+        assertEquals(1, reloads.get());
+        assertEquals(2, cache.get("a"));
+        assertTrue(tasks.isEmpty());
+        ticker.addAndGet(TimeUnit.MINUTES.toNanos(1));
+        assertEquals(2, cache.get("a"));
+        cache.put("a", 5);
+        tasks.remove(0).run();
+        assertEquals(5, cache.get("a"));
+    }
+
+    @Test
+    void testFailedRefreshIsNotJoinedAsLoad() throws Exception {
+        AtomicLong ticker = new AtomicLong();
+        List<Runnable> tasks = new ArrayList<>();
+        LRUCache<String, Integer> cache = new LRUCache<>(100);
+        cache.setTicker(ticker::get);
+        cache.setExpireAfterWrite(2, TimeUnit.MINUTES);
+        cache.put("a", 1);
+        cache.setRefreshAfterWrite(1, TimeUnit.MINUTES, k -> {
+            throw new IllegalStateException("backend down");
+        }, tasks::add);
+        ticker.addAndGet(TimeUnit.MINUTES.toNanos(1));
+        assertEquals(1, cache.get("a"));
+        assertEquals(1, tasks.size());
+        // the entry expires while the reload is in flight, a load joins the reload
+        ticker.addAndGet(TimeUnit.MINUTES.toNanos(1));
+        AtomicReference<Object> joined = new AtomicReference<>();
+        Thread thread = new Thread(() -> {
+            try {
+                joined.set(cache.get("a", k -> 3));
+            } catch (RuntimeException e) {
+                joined.set(e);
+            }
+        });
+        thread.start();
+        while (thread.getState() != Thread.State.WAITING && thread.isAlive()) {
+            Thread.yield();
+        }
+        tasks.remove(0).run();
+        thread.join();
+        // the expired value is not passed off as a fresh load
+        assertTrue(joined.get() instanceof IllegalStateException || Integer.valueOf(3).equals(joined.get()));
+        assertEquals(3, cache.get("a", k -> 3));
+    }
+
+    @Test
+    void testSnapshot(@TempDir Path dir) throws Exception {
+        LRUCache<String, String> cache = new LRUCache<>(1000);
+        for (int i = 0; i < 1000; i++) {
+            cache.put("k" + i, "v".repeat(i * 100));
+        }
+        cache.get("k0");
+        Path path = dir.resolve("snapshot");
+        assertEquals(100, cache.writeSnapshot(path, 100, Serializer.utf8(), Serializer.utf8()));
+        LRUCache<String, String> restored = new LRUCache<>(200);
+        restored.put("k999", "live");
+        ExecutorService executorService = Executors.newSingleThreadExecutor();
+        assertEquals(99, restored.loadSnapshot(path, Serializer.utf8(), Serializer.utf8(), executorService).get());
+        executorService.shutdown();
+        assertEquals(100, restored.queueSize());
+        assertEquals("live", restored.get("k999"));
+        assertEquals("", restored.get("k0"));
+        assertEquals("v".repeat(99800), restored.get("k998"));
+        assertFalse(restored.containsKey("k900"));
+    }
+
+    @Test
+    void testFailedSnapshotKeepsThePreviousOne(@TempDir Path dir) throws Exception {
+        LRUCache<String, String> cache = new LRUCache<>(10);
+        cache.put("a", "b");
+        Path path = dir.resolve("snapshot");
+        assertEquals(1, cache.writeSnapshot(path, 10, Serializer.utf8(), Serializer.utf8()));
+        byte[] previous = Files.readAllBytes(path);
+        Serializer<String> failing = new Serializer<>() {
+            @Override
+            public ByteBuffer serialize(String value) {
+                throw new IllegalStateException("failed");
+            }
+
+            @Override
+            public String deserialize(ByteBuffer buffer) {
+                throw new IllegalStateException("failed");
+            }
+        };
+        assertThrows(IllegalStateException.class, () -> cache.writeSnapshot(path, 10, Serializer.utf8(), failing));
+        assertArrayEquals(previous, Files.readAllBytes(path));
+        try (Stream<Path> files = Files.list(dir)) {
+            assertEquals(List.of(path), files.collect(Collectors.toList()));
+        }
+    }
+
+    @Test
+    void testWeakValues() throws Exception {
+        LRUCache<Integer, Object> cache = new LRUCache<>(100);
+        cache.setValueStrength(ValueStrength.WEAK);
+        Object strong = new Object();
+        cache.put(0, strong);
+        for (int i = 1; i < 10; i++) {
+            cache.put(i, new Object());
+        }
+        for (int i = 0; i < 50 && cache.size() > 1; i++) {
+            System.gc();
+            Thread.sleep(10L);
+            cache.cleanUp();
+        }
+        assertEquals(1, cache.size());
+        assertEquals(1, cache.queueSize());
+        assertEquals(strong, cache.get(0));
+        assertNull(cache.get(1));
+    }
+
+    @Test
+    void testMemoryPressure() {
+        LRUCache<Integer, Integer> cache = new LRUCache<>(100);
+        for (int i = 0; i < 100; i++) {
+            cache.put(i, i);
+        }
+        try (MemoryPressureMonitor monitor = new MemoryPressureMonitor(0.99d)) {
+            cache.setMemoryPressureMonitor(monitor);
+            monitor.notifyListeners();
+            assertEquals(0.5d, cache.getCapacityFactor());
+            assertEquals(50, cache.size());
+            monitor.notifyListeners();
+            assertEquals(25, cache.size());
+            cache.setMemoryPressureMonitor(null);
+            assertEquals(1.0d, cache.getCapacityFactor());
+            monitor.notifyListeners();
+            assertEquals(25, cache.size());
+        }
+    }
+
+    @Test
+    void testMemoryPressureMonitorDoesNotRetainCache() throws Exception {
+        try (MemoryPressureMonitor monitor = new MemoryPressureMonitor(0.99d)) {
+            WeakReference<LRUCache<Integer, Integer>> reference = registeredCache(monitor);
+            for (int i = 0; i < 50 && reference.get() != null; i++) {
+                System.gc();
+                Thread.sleep(10L);
+            }
+            assertNull(reference.get());
+            // the listener of the collected cache removes itself
+            monitor.notifyListeners();
+        }
+    }
+
+    private static WeakReference<LRUCache<Integer, Integer>> registeredCache(MemoryPressureMonitor monitor) {
+        LRUCache<Integer, Integer> cache = new LRUCache<>(100);
+        cache.put(0, 0);
+        cache.setMemoryPressureMonitor(monitor);
+        return new WeakReference<>(cache);
+    }
+
+    @Test
+    void testMemoryPressureMonitorRestoresThresholds() {
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            long max = pool.getUsage().getMax();
+            if (pool.getType() != MemoryType.HEAP || !pool.isCollectionUsageThresholdSupported() || max <= 0L) {
+                continue;
+            }
+            long original = pool.getCollectionUsageThreshold();
+            try {
+                pool.setCollectionUsageThreshold(max / 2);
+                MemoryPressureMonitor monitor = new MemoryPressureMonitor(0.9d);
+                assertEquals((long) (max * 0.9d), pool.getCollectionUsageThreshold());
+                monitor.close();
+                assertEquals(max / 2, pool.getCollectionUsageThreshold());
+            } finally {
+                pool.setCollectionUsageThreshold(original);
+            }
+        }
+    }
+
+    @Test
+    void testRemovalListener() {
+        AtomicLong ticker = new AtomicLong();
+        List<Runnable> tasks = new ArrayList<>();
+        List<List<RemovalNotification<String, Integer>>> batches = new ArrayList<>();
+        LRUCache<String, Integer> cache = new LRUCache<>(2);
+        cache.setTicker(ticker::get);
+        cache.setExpireAfterWrite(1, TimeUnit.MINUTES);
+        cache.setRemovalListener(batches::add, tasks::add);
+        cache.put("a", 1);
+        cache.put("a", 2);
+        cache.put("b", 3);
+        cache.put("c", 4);
+        cache.remove("c");
+        ticker.addAndGet(TimeUnit.MINUTES.toNanos(1));
+        cache.cleanUp();
+        assertTrue(batches.isEmpty());
+        assertEquals(1, tasks.size());
+        tasks.remove(0).run();
+        assertTrue(tasks.isEmpty());
+        assertEquals(1, batches.size());
+        assertEquals(List.of(new RemovalNotification<>("a", 1, RemovalCause.REPLACED),
+                new RemovalNotification<>("a", 2, RemovalCause.SIZE),
+                new RemovalNotification<>("c", 4, RemovalCause.EXPLICIT),
+                new RemovalNotification<>("b", 3, RemovalCause.EXPIRED)), batches.get(0));
+        List<RemovalCause> causes = new ArrayList<>();
+        for (RemovalNotification<String, Integer> notification : batches.get(0)) {
+            causes.add(notification.getCause());
+        }
+        assertEquals(List.of(RemovalCause.REPLACED, RemovalCause.SIZE, RemovalCause.EXPLICIT,
+                RemovalCause.EXPIRED), causes);
+        assertTrue(batches.get(0).get(1).wasEvicted());
+        assertFalse(batches.get(0).get(2).wasEvicted());
+    }
+
+    @Test
+    void testStats() {
+        LRUCache<String, Integer> cache = new LRUCache<>(2);
+        cache.get("a");
+        assertEquals(CacheStats.empty(), cache.stats());
+        cache.setRecordStats(true);
+        assertTrue(cache.isRecordStats());
+        assertNull(cache.get("a"));
+        assertEquals(1, cache.get("a", k -> 1));
+        assertEquals(1, cache.get("a"));
+        assertThrows(IllegalStateException.class, () -> cache.get("b", k -> {
+            throw new IllegalStateException();
+        }));
+        cache.put("b", 2);
+        cache.put("c", 3);
+        cache.cleanUp();
+        CacheStats stats = cache.stats();
+        assertEquals(1, stats.getHitCount());
+        assertEquals(3, stats.getMissCount());
+        assertEquals(0.25d, stats.getHitRate());
+        assertEquals(1, stats.getLoadSuccessCount());
+        assertEquals(1, stats.getLoadFailureCount());
+        assertTrue(stats.getTotalLoadTime() >= 0L);
+        assertEquals(1, stats.getEvictionCount());
+        assertEquals(3, cache.get("c"));
+        assertEquals(1, cache.stats().minus(stats).getHitCount());
+        cache.setRecordStats(false);
+        assertEquals(CacheStats.empty(), cache.stats());
+    }
+
+    @Test
+    void testRemoveAndReplace() {
+        LRUCache<String, Integer> cache = new LRUCache<>(10);
+        for (int i = 0; i < 10; i++) {
+            cache.put("k" + i, i);
+        }
+        assertEquals(5, cache.remove("k5"));
+        assertNull(cache.remove("k5"));
+        assertFalse(cache.remove("k6", 7));
+        assertTrue(cache.remove("k6", 6));
+        assertEquals(1, cache.put("k1", 11));
+        assertTrue(cache.replace("k1", 11, 12));
+        assertEquals(12, cache.get("k1"));
+        cache.entrySet().removeIf(e -> e.getValue() % 2 == 0);
+        assertEquals(cache.size(), cache.queueSize());
+        cache.clear();
+        assertTrue(cache.isEmpty());
+        assertEquals(0, cache.queueSize());
+    }
+
+    @Test
+    void testMergeKeepsEvictionOrder() {
+        LRUCache<Integer, Integer> cache = new LRUCache<>(10);
+        for (int i = 0; i < 100; i++) {
+            cache.merge(i % 20, 1, Integer::sum);
+        }
+        assertEquals(10, cache.size());
+        assertEquals(10, cache.queueSize());
+    }
+
+    @Test
+    void testCompute() {
+        AtomicLong ticker = new AtomicLong();
+        LRUCache<String, Integer> cache = new LRUCache<>(100);
+        cache.setTicker(ticker::get);
+        cache.setExpireAfterWrite(1, TimeUnit.MINUTES);
+        assertNull(cache.computeIfPresent("a", (k, v) -> v + 1));
+        assertEquals(1, cache.compute("a", (k, v) -> v == null ? 1 : v + 1));
+        assertEquals(2, cache.compute("a", (k, v) -> v == null ? 1 : v + 1));
+        assertEquals(3, cache.computeIfPresent("a", (k, v) -> v + 1));
+        assertEquals(5, cache.merge("a", 2, Integer::sum));
+        assertNull(cache.compute("a", (k, v) -> null));
+        assertFalse(cache.containsKey("a"));
+        cache.put("b", 1);
+        ticker.addAndGet(TimeUnit.MINUTES.toNanos(1));
+        assertEquals(1, cache.merge("b", 1, Integer::sum));
+        assertEquals(1, cache.size());
+        assertEquals(1, cache.queueSize());
+        assertNull(cache.computeIfPresent("b", (k, v) -> null));
+        assertEquals(0, cache.queueSize());
+    }
+
+    @Test
+    void testConcurrentMerge() throws Exception {
+        LRUCache<Integer, Integer> cache = new LRUCache<>(100);
+        ExecutorService executorService = Executors.newFixedThreadPool(8);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            futures.add(executorService.submit(() -> {
+                for (int i = 0; i < 10000; i++) {
+                    cache.merge(i % 10, 1, Integer::sum);
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executorService.shutdown();
+        for (int i = 0; i < 10; i++) {
+            assertEquals(8000, cache.get(i));
+        }
+        assertEquals(10, cache.queueSize());
+    }
+
+    @Test
+    void testTinyLFUWithLargeMaxWeight() {
+        // a weight of 20 GB must not size the frequency sketch, which counts entries
+        TinyLFUCache<Integer, byte[]> cache = new TinyLFUCache<>(100);
+        cache.setMaxWeight(20L << 30, (k, v) -> v.length);
+        for (int i = 0; i < 1000; i++) {
+            cache.put(i, new byte[1024]);
+        }
+        assertEquals(1000, cache.size());
+        assertEquals(1000L * 1024, cache.weightedSize());
+        cache.setMaxWeight(100L * 1024, (k, v) -> v.length);
+        assertEquals(100, cache.queueSize());
+    }
+
+    @Test
+    void testTinyLFUSurvivesScan() {
+        LRUCache<Integer, Integer> lru = new LRUCache<>(100);
+        LRUCache<Integer, Integer> tinyLfu = new TinyLFUCache<>(100);
+        for (LRUCache<Integer, Integer> cache : List.of(lru, tinyLfu)) {
+            for (int round = 0; round < 10; round++) {
+                for (int i = 0; i < 50; i++) {
+                    if (cache.get(i) == null) {
+                        cache.put(i, i);
+                    }
+                }
+            }
+            for (int i = 1000; i < 2000; i++) {
+                cache.put(i, i);
+            }
+            assertEquals(100, cache.queueSize());
+        }
+        int lruHits = 0;
+        int tinyLfuHits = 0;
+        for (int i = 0; i < 50; i++) {
+            lruHits += lru.containsKey(i) ? 1 : 0;
+            tinyLfuHits += tinyLfu.containsKey(i) ? 1 : 0;
+        }
+        assertEquals(0, lruHits);
+        assertEquals(50, tinyLfuHits);
+    }
+
+    @Test
+    void testSampledEvictsOldestRead() throws Exception {
+        SampledLRUCache<Integer, Integer> cache = new SampledLRUCache<>(100);
+        assertEquals(5, cache.getSampleSize());
+        assertThrows(IllegalArgumentException.class, () -> cache.setSampleSize(0));
+        // sample all entries, so that eviction is exact
+        cache.setSampleSize(1000);
+        for (int i = 0; i < 100; i++) {
+            cache.put(i, i);
+        }
+        Thread.sleep(5L);
+        for (int i = 0; i < 50; i++) {
+            assertEquals(i, cache.get(i));
+        }
+        Thread.sleep(5L);
+        for (int i = 100; i < 150; i++) {
+            cache.put(i, i);
+        }
+        cache.cleanUp();
+        assertEquals(100, cache.queueSize());
+        for (int i = 0; i < 150; i++) {
+            assertEquals(i < 50 || i >= 100, cache.containsKey(i));
+        }
+    }
+
+    @Test
+    void testConcurrentAccess() throws Exception {
+        for (LRUCache<Integer, Integer> cache : List.of(new LRUCache<Integer, Integer>(100),
+                new TinyLFUCache<Integer, Integer>(100), new SampledLRUCache<Integer, Integer>(100))) {
+            concurrentAccess(cache);
+        }
+    }
+
+    @Test
+    void testConcurrentWeights() throws Exception {
+        for (LRUCache<Integer, Integer> cache : List.of(new LRUCache<Integer, Integer>(100),
+                new TinyLFUCache<Integer, Integer>(100))) {
+            cache.setMaxWeight(1000, (k, v) -> v);
+            ExecutorService executorService = Executors.newFixedThreadPool(8);
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                futures.add(executorService.submit(() -> {
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    for (int i = 0; i < 100000; i++) {
+                        int key = random.nextInt(200);
+                        if (random.nextInt(4) == 0) {
+                            cache.remove(key);
+                        } else {
+                            cache.put(key, random.nextInt(50));
+                        }
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+            executorService.shutdown();
+            long weight = cache.weightedSize();
+            assertEquals(cache.values().stream().mapToLong(Integer::longValue).sum(), weight);
+            assertTrue(weight <= 1000);
+        }
+    }
+
+    @Test
+    void testWritesAreDrainedAfterLockHolders() throws Exception {
+        LRUCache<Integer, Integer> cache = new LRUCache<>(100);
+        ExecutorService executorService = Executors.newFixedThreadPool(5);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            int offset = t * 1000000;
+            futures.add(executorService.submit(() -> {
+                for (int i = 0; i < 100000; i++) {
+                    cache.put(offset + i, i);
+                }
+            }));
+        }
+        AtomicBoolean done = new AtomicBoolean();
+        Future<?> cleaner = executorService.submit(() -> {
+            while (!done.get()) {
+                cache.cleanUp();
+            }
+        });
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        done.set(true);
+        cleaner.get();
+        executorService.shutdown();
+        // no write is left in the buffer without a drain that applies it
+        assertTrue(cache.size() <= 100);
+    }
+
+    private static void concurrentAccess(LRUCache<Integer, Integer> cache) throws Exception {
+        ExecutorService executorService = Executors.newFixedThreadPool(8);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            futures.add(executorService.submit(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                for (int i = 0; i < 100000; i++) {
+                    int key = random.nextInt(1000);
+                    switch (random.nextInt(4)) {
+                        case 0:
+                            cache.put(key, key);
+                            break;
+                        case 1:
+                            cache.remove(key);
+                            break;
+                        default:
+                            Integer value = cache.get(key);
+                            if (value != null) {
+                                assertEquals(key, value);
+                            }
+                    }
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executorService.shutdown();
+        assertEquals(cache.size(), cache.queueSize());
+        assertEquals(cache.size(), cache.weightedSize());
+        assertTrue(cache.size() <= 100);
+    }
+}
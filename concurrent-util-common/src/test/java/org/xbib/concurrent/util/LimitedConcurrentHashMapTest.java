@@ -0,0 +1,55 @@
+package org.xbib.concurrent.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+public class LimitedConcurrentHashMapTest {
+
+    @Test
+    void testExactPermits() {
+        LimitedConcurrentHashMap<String, Integer> map = new LimitedConcurrentHashMap<>(2);
+        assertNull(map.put("a", 1));
+        assertEquals(1, map.put("a", 2));
+        assertEquals(1, map.remainingCapacity());
+        assertNull(map.remove("b"));
+        assertFalse(map.remove("a", 1));
+        assertEquals(1, map.remainingCapacity());
+        assertNull(map.putIfAbsent("b", 3));
+        assertEquals(3, map.putIfAbsent("b", 4));
+        assertThrows(IllegalArgumentException.class, () -> map.put("c", 5));
+        assertThrows(IllegalArgumentException.class, () -> map.computeIfAbsent("c", k -> 5));
+        assertEquals(4, map.merge("b", 1, Integer::sum));
+        assertNull(map.computeIfPresent("b", (k, v) -> null));
+        assertEquals(1, map.remainingCapacity());
+        assertEquals(5, map.compute("c", (k, v) -> 5));
+        assertEquals(0, map.remainingCapacity());
+        map.clear();
+        assertEquals(2, map.remainingCapacity());
+        assertTrue(map.isEmpty());
+    }
+
+    @Test
+    void testBlockingPut() throws Exception {
+        LimitedConcurrentHashMap<String, Integer> map = new LimitedConcurrentHashMap<>(1);
+        map.put("a", 1);
+        assertFalse(map.tryPut("b", 2, 10, TimeUnit.MILLISECONDS));
+        assertTrue(map.tryPut("a", 2, 10, TimeUnit.MILLISECONDS));
+        ExecutorService executorService = Executors.newSingleThreadExecutor();
+        Future<Integer> future = executorService.submit(() -> map.putBlocking("b", 2));
+        Thread.sleep(50L);
+        assertFalse(future.isDone());
+        assertEquals(2, map.remove("a"));
+        assertNull(future.get(5, TimeUnit.SECONDS));
+        executorService.shutdown();
+        assertEquals(2, map.get("b"));
+        assertEquals(0, map.remainingCapacity());
+    }
+}
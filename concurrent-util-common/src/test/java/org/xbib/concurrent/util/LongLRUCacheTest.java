@@ -0,0 +1,108 @@
+package org.xbib.concurrent.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class LongLRUCacheTest {
+
+    @Test
+    void testBoundAndReferencedEntriesSurvive() {
+        LongLRUCache<String> cache = new LongLRUCache<>(1, 100);
+        for (long key = 0; key < 100; key++) {
+            cache.put(key, "v" + key);
+        }
+        for (long key = 100; key < 150; key++) {
+            // keep the first ten entries referenced
+            for (long hot = 0; hot < 10; hot++) {
+                assertEquals("v" + hot, cache.get(hot));
+            }
+            cache.put(key, "v" + key);
+        }
+        assertEquals(100, cache.size());
+        for (long hot = 0; hot < 10; hot++) {
+            assertTrue(cache.containsKey(hot));
+        }
+        assertEquals("v149", cache.remove(149L));
+        assertNull(cache.get(149L));
+        assertEquals("x", cache.get(149L, key -> "x"));
+        assertEquals("x", cache.putIfAbsent(149L, "y"));
+    }
+
+    @Test
+    void testLoadRunsOutsideOfTheLock() throws Exception {
+        LongLRUCache<String> cache = new LongLRUCache<>(1, 100);
+        cache.put(2L, "b");
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger loads = new AtomicInteger();
+        ExecutorService executorService = Executors.newFixedThreadPool(4);
+        List<Future<String>> futures = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            futures.add(executorService.submit(() -> cache.get(1L, key -> {
+                loads.incrementAndGet();
+                loading.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return "a";
+            })));
+        }
+        assertTrue(loading.await(10, TimeUnit.SECONDS));
+        // the segment is not blocked by the slow load
+        assertEquals("b", cache.get(2L));
+        cache.put(3L, "c");
+        release.countDown();
+        for (Future<String> future : futures) {
+            assertEquals("a", future.get());
+        }
+        executorService.shutdown();
+        assertEquals(1, loads.get());
+        assertEquals("a", cache.get(1L));
+    }
+
+    @Test
+    void testConcurrentAccess() throws Exception {
+        LongLRUCache<Long> cache = new LongLRUCache<>(4, 1000);
+        ExecutorService executorService = Executors.newFixedThreadPool(8);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            futures.add(executorService.submit(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                for (int i = 0; i < 200000; i++) {
+                    long key = random.nextInt(5000);
+                    switch (random.nextInt(10)) {
+                        case 0:
+                            cache.put(key, key);
+                            break;
+                        case 1:
+                            cache.remove(key);
+                            break;
+                        default:
+                            Long value = cache.get(key);
+                            if (value != null) {
+                                assertEquals(key, (long) value);
+                            }
+                    }
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executorService.shutdown();
+        assertTrue(cache.size() <= 1000);
+    }
+}
@@ -0,0 +1,68 @@
+package org.xbib.concurrent.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+public class LongObjectMapTest {
+
+    @Test
+    void testAgainstHashMap() {
+        LongObjectMap<Long> map = new LongObjectMap<>();
+        Map<Long, Long> expected = new HashMap<>();
+        Random random = new Random(42L);
+        for (int i = 0; i < 200000; i++) {
+            long key = random.nextInt(5000) - 2500L;
+            switch (random.nextInt(3)) {
+                case 0:
+                    assertEquals(expected.remove(key), map.remove(key));
+                    break;
+                case 1:
+                    assertEquals(expected.put(key, (long) i), map.put(key, (long) i));
+                    break;
+                default:
+                    assertEquals(expected.get(key), map.get(key));
+            }
+            assertEquals(expected.size(), map.size());
+        }
+        Map<Long, Long> actual = new HashMap<>();
+        map.forEach(actual::put);
+        assertEquals(expected, actual);
+    }
+
+    @Test
+    void testExtremeKeys() {
+        LongObjectMap<String> map = new LongObjectMap<>(0);
+        map.put(0L, "zero");
+        map.put(Long.MIN_VALUE, "min");
+        map.put(Long.MAX_VALUE, "max");
+        assertEquals("zero", map.get(0L));
+        assertEquals("min", map.get(Long.MIN_VALUE));
+        assertEquals("max", map.get(Long.MAX_VALUE));
+        assertEquals("min", map.putIfAbsent(Long.MIN_VALUE, "other"));
+        assertTrue(map.containsKey(0L));
+        map.clear();
+        assertTrue(map.isEmpty());
+        assertFalse(map.containsKey(0L));
+        assertNull(map.get(Long.MAX_VALUE));
+    }
+
+    @Test
+    void testClockEviction() {
+        LongObjectMap<String> map = new LongObjectMap<>(100, true);
+        for (long key = 0; key < 100; key++) {
+            map.put(key, "v");
+        }
+        map.reference(map.indexOf(42L));
+        for (int i = 0; i < 99; i++) {
+            assertTrue(map.evict() != 42L);
+        }
+        assertEquals(1, map.size());
+        assertTrue(map.containsKey(42L));
+    }
+}
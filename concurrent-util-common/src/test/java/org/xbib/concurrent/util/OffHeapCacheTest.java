@@ -0,0 +1,124 @@
+package org.xbib.concurrent.util;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+
+public class OffHeapCacheTest {
+
+    @Test
+    void testPutGetRemove() throws Exception {
+        try (OffHeapCache<String> cache = new OffHeapCache<>(64 * 1024, 4096)) {
+            assertTrue(cache.put("a", "hello".getBytes(StandardCharsets.UTF_8)));
+            assertTrue(cache.put("b", new byte[1000]));
+            assertEquals("hello", new String(cache.get("a"), StandardCharsets.UTF_8));
+            assertEquals(5, cache.get("a", ByteBuffer::remaining));
+            assertEquals(1000, cache.get("b").length);
+            assertTrue(cache.put("a", "world!".getBytes(StandardCharsets.UTF_8)));
+            assertEquals("world!", new String(cache.get("a"), StandardCharsets.UTF_8));
+            assertEquals(2, cache.size());
+            assertTrue(cache.remove("a"));
+            assertFalse(cache.remove("a"));
+            assertNull(cache.get("a"));
+            assertEquals(1, cache.size());
+            assertThrows(IllegalArgumentException.class, () -> cache.put("c", new byte[4096]));
+            cache.clear();
+            assertEquals(0, cache.size());
+        }
+    }
+
+    @Test
+    void testSerializer() throws Exception {
+        try (OffHeapCache<String> cache = new OffHeapCache<>(64 * 1024, 4096)) {
+            assertTrue(cache.put("a", "hello", Serializer.utf8()));
+            assertEquals("hello", cache.get("a", Serializer.utf8()));
+            assertNull(cache.get("b", Serializer.utf8()));
+        }
+    }
+
+    @Test
+    void testZeroCopyViewIsReadOnly() throws Exception {
+        try (OffHeapCache<String> cache = new OffHeapCache<>(64 * 1024, 4096)) {
+            cache.put("a", new byte[] { 1, 2, 3 });
+            assertTrue(cache.get("a", ByteBuffer::isReadOnly));
+            assertTrue(cache.get("a", ByteBuffer::isDirect));
+            assertEquals(6, (int) cache.get("a", buffer -> buffer.get(0) + buffer.get(1) + buffer.get(2)));
+        }
+    }
+
+    @Test
+    void testClockEviction() throws Exception {
+        // two slabs of 18 chunks of 224 bytes
+        try (OffHeapCache<Integer> cache = new OffHeapCache<>(8192, 4096)) {
+            byte[] value = new byte[220];
+            for (int i = 0; i < 36; i++) {
+                assertTrue(cache.put(i, value));
+            }
+            assertEquals(36, cache.size());
+            assertEquals(8192, cache.getAllocatedMemory());
+            for (int i = 0; i < 18; i++) {
+                cache.get(i);
+            }
+            for (int i = 36; i < 54; i++) {
+                assertTrue(cache.put(i, value));
+            }
+            assertEquals(36, cache.size());
+            for (int i = 0; i < 18; i++) {
+                assertTrue(cache.containsKey(i));
+            }
+            for (int i = 18; i < 36; i++) {
+                assertFalse(cache.containsKey(i));
+            }
+            // another size class takes a slab, and the entries in it are evicted
+            assertTrue(cache.put(100, new byte[10]));
+            assertEquals(19, cache.size());
+            assertEquals(8192, cache.getAllocatedMemory());
+        }
+    }
+
+    @Test
+    void testSlabsMoveBetweenSizeClasses() throws Exception {
+        try (OffHeapCache<Integer> cache = new OffHeapCache<>(16384, 4096)) {
+            for (int i = 0; i < 1000; i++) {
+                assertTrue(cache.put(i, new byte[10]));
+            }
+            assertEquals(16384, cache.getAllocatedMemory());
+            // a value of a slab fits once a slab is taken from the small values
+            byte[] large = new byte[4000];
+            large[3999] = 42;
+            assertTrue(cache.put(-1, large));
+            assertArrayEquals(large, cache.get(-1));
+            // a larger value for a key moves it to another size class and keeps the rest
+            assertTrue(cache.put(999, new byte[100]));
+            assertEquals(100, cache.get(999).length);
+            assertTrue(cache.put(999, new byte[3]));
+            assertEquals(3, cache.get(999).length);
+            assertEquals(16384, cache.getAllocatedMemory());
+        }
+    }
+
+    @Test
+    void testMemoryMappedFile(@TempDir Path dir) throws Exception {
+        try (OffHeapCache<Integer> cache = new OffHeapCache<>(dir.resolve("cache"), 4 << 20, 1 << 16)) {
+            for (int i = 1; i < 1000; i++) {
+                byte[] value = new byte[i];
+                value[i / 2] = (byte) i;
+                assertTrue(cache.put(i, value));
+            }
+            assertEquals(999, cache.size());
+            for (int i = 1; i < 1000; i++) {
+                byte[] expected = new byte[i];
+                expected[i / 2] = (byte) i;
+                assertArrayEquals(expected, cache.get(i));
+            }
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package org.xbib.concurrent.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+public class ShardedCacheTest {
+
+    @Test
+    void testSegments() {
+        ShardedCache<Integer, Integer> cache = new ShardedCache<>(3, 400);
+        assertEquals(4, cache.getSegmentCount());
+        assertEquals(400, Arrays.stream(cache.getSegmentMaxSizes()).sum());
+        for (int i = 0; i < 1000; i++) {
+            cache.put(i, i);
+        }
+        assertEquals(400, cache.queueSize());
+        assertEquals(400, cache.size());
+        assertEquals(400, cache.entrySet().size());
+        int count = 0;
+        for (Iterator<Map.Entry<Integer, Integer>> it = cache.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<Integer, Integer> entry = it.next();
+            assertEquals(entry.getKey(), entry.getValue());
+            if (entry.getKey() % 2 == 0) {
+                it.remove();
+            }
+            count++;
+        }
+        assertEquals(400, count);
+        assertTrue(cache.size() < 400);
+        assertFalse(cache.containsKey(998));
+        assertEquals(999, cache.get(999));
+    }
+
+    @Test
+    void testLoadingAcrossSegments() {
+        ShardedCache<Integer, Integer> cache = new ShardedCache<>(4, 100);
+        assertEquals(2, cache.get(1, k -> k * 2));
+        Map<Integer, Integer> values = cache.getAll(Arrays.asList(5, 1, 3, 2), keys -> {
+            Map<Integer, Integer> map = new HashMap<>();
+            keys.forEach(k -> map.put(k, k * 10));
+            return map;
+        });
+        assertEquals(Arrays.asList(5, 1, 3, 2), Arrays.asList(values.keySet().toArray()));
+        assertEquals(2, values.get(1));
+        assertEquals(50, values.get(5));
+    }
+
+    @Test
+    void testRebalanceFollowsHits() {
+        ShardedCache<Integer, Integer> cache = new ShardedCache<>(4, 400, TinyLFUCache::new);
+        cache.setRecordStats(true);
+        for (int i = 0; i < 400; i++) {
+            cache.put(i, i);
+        }
+        // read only the keys of one segment
+        int hot = cache.segmentIndex(0);
+        for (int i = 0; i < 400; i++) {
+            if (cache.segmentIndex(i) == hot) {
+                cache.get(i);
+            }
+        }
+        cache.rebalance();
+        int[] sizes = cache.getSegmentMaxSizes();
+        assertEquals(400, Arrays.stream(sizes).sum());
+        assertEquals(50, Arrays.stream(sizes).min().getAsInt());
+        assertEquals(250, Arrays.stream(sizes).max().getAsInt());
+    }
+}
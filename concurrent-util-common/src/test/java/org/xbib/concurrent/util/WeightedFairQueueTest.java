@@ -0,0 +1,172 @@
+package org.xbib.concurrent.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+public class WeightedFairQueueTest {
+
+    @Test
+    void testRoundRobin() throws Exception {
+        WeightedFairQueue<Request> queue = new WeightedFairQueue<>(101);
+        for (int i = 0; i < 90; i++) {
+            queue.put(new TestTenantRequest("a", i));
+        }
+        for (int i = 0; i < 10; i++) {
+            queue.put(new TestTenantRequest("b", i));
+        }
+        queue.put(WorkerPoolTest.TestRequest.EMPTY);
+        assertEquals(2, queue.tenantCount());
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 20; i++) {
+            sb.append(((TestTenantRequest) queue.take()).tenant);
+        }
+        assertEquals("ab".repeat(10), sb.toString());
+        assertEquals(1, queue.tenantCount());
+        for (int i = 0; i < 80; i++) {
+            assertEquals("a", ((TestTenantRequest) queue.take()).tenant);
+        }
+        assertEquals(0, queue.tenantCount());
+        assertEquals(WorkerPoolTest.TestRequest.EMPTY, queue.take());
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    void testWeights() throws Exception {
+        WeightedFairQueue<Request> queue = new WeightedFairQueue<>(tenant -> tenant.equals("a") ? 3 : 1, 12);
+        for (int i = 0; i < 9; i++) {
+            queue.put(new TestTenantRequest("a", i));
+        }
+        for (int i = 0; i < 3; i++) {
+            queue.put(new TestTenantRequest("b", i));
+        }
+        StringBuilder sb = new StringBuilder();
+        while (!queue.isEmpty()) {
+            sb.append(((TestTenantRequest) queue.take()).tenant);
+        }
+        assertEquals("aaabaaabaaab", sb.toString());
+    }
+
+    @Test
+    void testCapacity() throws Exception {
+        WeightedFairQueue<Request> queue = new WeightedFairQueue<>(tenant -> 1, 1, 2);
+        assertTrue(queue.offer(new TestTenantRequest("a", 0)));
+        assertTrue(queue.offer(new TestTenantRequest("b", 0)));
+        assertFalse(queue.offer(new TestTenantRequest("c", 0)));
+        assertEquals(0, queue.remainingCapacity());
+    }
+
+    @Test
+    void testWorkerPool() throws Exception {
+        ConcurrentHashMap<String, AtomicInteger> counts = new ConcurrentHashMap<>();
+        TenantWorkerPool pool = new TenantWorkerPool(counts, 2, new WeightedFairQueue<>(2));
+        pool.open();
+        for (int i = 0; i < 100; i++) {
+            pool.execute(new TestTenantRequest(i % 10 == 0 ? "b" : "a", i));
+        }
+        pool.close();
+        assertTrue(pool.isClosed());
+        assertFalse(pool.isFailed());
+        assertEquals(90, counts.get("a").get());
+        assertEquals(10, counts.get("b").get());
+    }
+
+    @Test
+    void testWorkerPoolShares() throws Exception {
+        // one worker is held by a gate request until the queue is filled with a backlog
+        List<String> executed = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        WeightedFairQueue<Request> queue = new WeightedFairQueue<>(tenant -> tenant.equals("a") ? 3 : 1, 20);
+        TenantWorkerPool pool = new TenantWorkerPool(new ConcurrentHashMap<>(), 1, queue) {
+            @Override
+            public Worker<Request> newWorker(String name) {
+                return r -> {
+                    String tenant = ((TestTenantRequest) r).tenant;
+                    if (tenant.equals("gate")) {
+                        started.countDown();
+                        try {
+                            release.await();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                    } else {
+                        executed.add(tenant);
+                    }
+                };
+            }
+        };
+        pool.open();
+        pool.execute(new TestTenantRequest("gate", 0));
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        for (int i = 0; i < 10; i++) {
+            pool.execute(new TestTenantRequest("b", i));
+        }
+        for (int i = 0; i < 10; i++) {
+            pool.execute(new TestTenantRequest("a", i));
+        }
+        release.countDown();
+        pool.close();
+        assertFalse(pool.isFailed());
+        assertEquals(20, executed.size());
+        // while both tenants have a backlog, tenant a gets three of every four turns
+        long a = executed.subList(0, 12).stream().filter("a"::equals).count();
+        assertEquals(9, a);
+    }
+
+    static class TenantWorkerPool extends AbstractWorkerPool<Request, Worker<Request>> {
+
+        private final ConcurrentHashMap<String, AtomicInteger> counts;
+
+        TenantWorkerPool(ConcurrentHashMap<String, AtomicInteger> counts, int workerCount,
+                         WeightedFairQueue<Request> queue) {
+            super("tenant", workerCount, null, 30, queue);
+            this.counts = counts;
+        }
+
+        @Override
+        public Worker<Request> newWorker(String name) {
+            return r -> {
+                String tenant = ((TestTenantRequest) r).tenant;
+                Logger.getLogger(Thread.currentThread().getName()).info(name + " executing " + r);
+                counts.computeIfAbsent(tenant, k -> new AtomicInteger()).incrementAndGet();
+            };
+        }
+
+        @Override
+        public Request getPoison() {
+            return WorkerPoolTest.TestRequest.EMPTY;
+        }
+    }
+
+    static class TestTenantRequest implements TenantRequest {
+
+        final String tenant;
+
+        final int i;
+
+        TestTenantRequest(String tenant, int i) {
+            this.tenant = tenant;
+            this.i = i;
+        }
+
+        @Override
+        public String getTenant() {
+            return tenant;
+        }
+
+        @Override
+        public String toString() {
+            return tenant + "-" + i;
+        }
+    }
+}
@@ -1,10 +1,26 @@
 package org.xbib.concurrent.util;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
 import org.junit.jupiter.api.Test;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongConsumer;
 import java.util.logging.Logger;
+import java.util.stream.Collectors;
 
 public class WorkerPoolTest {
 
@@ -44,6 +60,111 @@ public class WorkerPoolTest {
         assertTrue(pool.isFailed());
     }
 
+    @Test
+    void testFlightRecorderEvents() throws Exception {
+        Path path = Files.createTempFile("workerpool", ".jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable("org.xbib.concurrent.util.*");
+            recording.start();
+            ExceptionWorkerPool pool = new ExceptionWorkerPool(listener);
+            pool.open();
+            for (int i = 0; i < 100; i++) {
+                pool.execute(new TestRequest("jfr-" + i));
+            }
+            pool.close();
+            recording.stop();
+            recording.dump(path);
+        }
+        List<RecordedEvent> events = RecordingFile.readAllEvents(path);
+        Files.delete(path);
+        List<String> names = events.stream()
+                .map(e -> e.getEventType().getName())
+                .collect(Collectors.toList());
+        int workers = Runtime.getRuntime().availableProcessors();
+        assertEquals(workers, names.stream().filter("org.xbib.concurrent.util.WorkerStarted"::equals).count());
+        assertEquals(workers, names.stream().filter("org.xbib.concurrent.util.WorkerDied"::equals).count());
+        assertTrue(names.contains("org.xbib.concurrent.util.RequestEnqueued"));
+        assertTrue(names.contains("org.xbib.concurrent.util.RequestDequeued"));
+        assertTrue(names.contains("org.xbib.concurrent.util.RequestExecuted"));
+        assertTrue(names.contains("org.xbib.concurrent.util.RequestRejected"));
+    }
+
+    @Test
+    void testOrderedWorkerPool() throws Exception {
+        List<Long> committed = Collections.synchronizedList(new ArrayList<>());
+        OrderedTestWorkerPool pool = new OrderedTestWorkerPool(4, (request, sequence, throwable) -> {
+            assertEquals(sequence, request.getSequence());
+            committed.add(sequence);
+        });
+        pool.open();
+        for (int i = 0; i < 100; i++) {
+            pool.execute(new SequencedTestRequest("ordered-" + i));
+        }
+        pool.close();
+        assertFalse(pool.isFailed());
+        assertEquals(100, pool.getCommitted());
+        assertEquals(100, committed.size());
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i, committed.get(i));
+        }
+    }
+
+    @Test
+    void testOrderedWorkerPoolWithFailingCommitListener() throws Exception {
+        List<Long> committed = Collections.synchronizedList(new ArrayList<>());
+        OrderedTestWorkerPool pool = new OrderedTestWorkerPool(4, (request, sequence, throwable) -> {
+            committed.add(sequence);
+            if (sequence % 10 == 0) {
+                throw new IllegalStateException("commit " + sequence);
+            }
+        });
+        pool.open();
+        for (int i = 0; i < 100; i++) {
+            pool.execute(new SequencedTestRequest("failing-commit-" + i));
+        }
+        pool.close();
+        // the workers survive the exceptions of the commit listener
+        assertFalse(pool.isFailed());
+        assertEquals(100, pool.getCommitted());
+        assertEquals(100, committed.size());
+    }
+
+    @Test
+    void testCompletionWatermark() throws Exception {
+        AtomicLong last = new AtomicLong();
+        CompletionWatermark watermark = new CompletionWatermark(4, last::set);
+        for (int i = 0; i < 4; i++) {
+            assertEquals(i, watermark.acquire(1L, TimeUnit.SECONDS));
+        }
+        assertThrows(TimeoutException.class, () -> watermark.acquire(10L, TimeUnit.MILLISECONDS));
+        watermark.complete(2);
+        watermark.complete(1);
+        assertEquals(0, watermark.getWatermark());
+        watermark.complete(0);
+        assertEquals(3, watermark.getWatermark());
+        assertEquals(3, last.get());
+        assertEquals(4, watermark.acquire(1L, TimeUnit.SECONDS));
+        watermark.complete(4);
+        watermark.complete(3);
+        assertEquals(5, watermark.getWatermark());
+    }
+
+    @Test
+    void testWatermarkWorkerPool() throws Exception {
+        AtomicLong last = new AtomicLong();
+        WatermarkTestWorkerPool pool = new WatermarkTestWorkerPool(4, w -> last.accumulateAndGet(w, Math::max));
+        pool.open();
+        for (int i = 0; i < 1000; i++) {
+            pool.execute(new SequencedTestRequest("watermark-" + i));
+            assertTrue(pool.getWatermark() <= pool.getSubmitted());
+        }
+        pool.close();
+        assertFalse(pool.isFailed());
+        assertEquals(1000, pool.getSubmitted());
+        assertEquals(1000, pool.getWatermark());
+        assertEquals(1000, last.get());
+    }
+
     private static final WorkerPoolListener<Request, Worker<Request>> listener = new WorkerPoolListener<>() {
 
         final Logger logger = Logger.getLogger("listener");
@@ -134,6 +255,71 @@ public class WorkerPoolTest {
     }
 
 
+    static class OrderedTestWorkerPool extends OrderedWorkerPool<SequencedTestRequest, Worker<SequencedTestRequest>> {
+
+        OrderedTestWorkerPool(int workerCount, CommitListener<SequencedTestRequest> commitListener) {
+            super("ordered", workerCount, null, 8, commitListener);
+        }
+
+        @Override
+        public Worker<SequencedTestRequest> newWorker(String name) {
+            return r -> {
+                try {
+                    Thread.sleep(ThreadLocalRandom.current().nextInt(5));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            };
+        }
+
+        @Override
+        public SequencedTestRequest getPoison() {
+            return SequencedTestRequest.EMPTY;
+        }
+    }
+
+    static class WatermarkTestWorkerPool extends WatermarkWorkerPool<SequencedTestRequest, Worker<SequencedTestRequest>> {
+
+        WatermarkTestWorkerPool(int workerCount, LongConsumer watermarkListener) {
+            super("watermark", workerCount, null, 16, watermarkListener);
+        }
+
+        @Override
+        public Worker<SequencedTestRequest> newWorker(String name) {
+            return r -> {
+                if (ThreadLocalRandom.current().nextInt(10) == 0) {
+                    Thread.yield();
+                }
+            };
+        }
+
+        @Override
+        public SequencedTestRequest getPoison() {
+            return SequencedTestRequest.EMPTY;
+        }
+    }
+
+    static class SequencedTestRequest extends TestRequest implements SequencedRequest {
+
+        static SequencedTestRequest EMPTY = new SequencedTestRequest("");
+
+        long sequence;
+
+        SequencedTestRequest(String name) {
+            super(name);
+        }
+
+        @Override
+        public void setSequence(long sequence) {
+            this.sequence = sequence;
+        }
+
+        @Override
+        public long getSequence() {
+            return sequence;
+        }
+    }
+
     static class TestRequest implements Request {
 
         static TestRequest EMPTY = new TestRequest("");